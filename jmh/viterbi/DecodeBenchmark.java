@@ -0,0 +1,74 @@
+package viterbi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Viterbi.run on the WSJ_23 sentences of one length bucket, one sentence per call. A
+// bucket holds the sentences of sentenceLength words down to the previous bucket, as in
+// Benchmark's sentence latency table.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class DecodeBenchmark {
+
+    private static final int[] SENTENCE_LENGTH_BUCKETS = {10, 20, 30, 40, 100};
+
+    @Param({"10", "20", "30", "40", "100"})
+    public int sentenceLength;
+
+    @Param({"LOG", "SPARSE", "VECTOR", "BEAM"})
+    public DecodeMode decodeMode;
+
+    private Viterbi viterbi;
+    private List<List<String>> sentences;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        viterbi = Fixtures.createViterbi(Fixtures.train());
+        viterbi.setDecodeMode(decodeMode);
+
+        Integer minLength = 1;
+        for (int maxLength : SENTENCE_LENGTH_BUCKETS) {
+            if (maxLength == sentenceLength) {
+                break;
+            }
+            minLength = maxLength + 1;
+        }
+        sentences = new ArrayList<>();
+        for (List<String> sentence : Fixtures.readTestSentences()) {
+            if (sentence.size() >= minLength && sentence.size() <= sentenceLength) {
+                sentences.add(sentence);
+            }
+        }
+        if (sentences.isEmpty()) {
+            throw new IllegalStateException("No test sentences of " + minLength + "-" + sentenceLength + " words");
+        }
+    }
+
+    @Benchmark
+    public List<String> run() {
+        List<String> sentence = sentences.get(next);
+        next = next + 1 == sentences.size() ? 0 : next + 1;
+
+        return viterbi.run(sentence);
+    }
+
+}
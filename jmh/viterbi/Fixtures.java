@@ -0,0 +1,45 @@
+package viterbi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// The corpus files and settings the JMH benchmarks share. Models are trained on WSJ_24
+// and decode the sentences of WSJ_23, so unknown words occur as often as in the
+// held-out evaluation. Paths are relative to the repository root, where `gradle jmh` runs.
+class Fixtures {
+
+    static final File TRAINING_FILE = new File("WSJ_POS_CORPUS_FOR_STUDENTS/WSJ_24.pos");
+    static final File TEST_FILE = new File("WSJ_POS_CORPUS_FOR_STUDENTS/WSJ_23.words");
+    static final Integer MAX_SUFFIX_LENGTH = 5;
+    static final Integer MAX_WORD_FREQUENCY = 10;
+
+    static BigramModel train() throws IOException {
+        BigramModel bigramModel = new BigramModel(MAX_SUFFIX_LENGTH);
+        bigramModel.train(TRAINING_FILE);
+
+        return bigramModel;
+    }
+
+    static Viterbi createViterbi(BigramModel bigramModel) {
+        SuffixTreeBuilder.Trees trees = new SuffixTreeBuilder(bigramModel, MAX_SUFFIX_LENGTH, MAX_WORD_FREQUENCY).buildTrees();
+
+        return new Viterbi(bigramModel, trees.getUpperCaseTree(), trees.getLowerCaseTree(), MAX_SUFFIX_LENGTH);
+    }
+
+    static List<List<String>> readTestSentences() throws IOException {
+        List<List<String>> sentences = new ArrayList<>();
+        try (CorpusReader reader = new CorpusReader(TEST_FILE)) {
+            List<String> sentence;
+            while ((sentence = reader.nextSentence()) != null) {
+                if (!sentence.isEmpty()) {
+                    sentences.add(sentence);
+                }
+            }
+        }
+
+        return sentences;
+    }
+
+}
@@ -0,0 +1,49 @@
+package viterbi;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Suffix tree construction from a model trained on WSJ_24: each tree on its own through
+// SuffixTreeBuilder.buildTree, and both trees at once through buildTrees.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SuffixTreeBenchmark {
+
+    private SuffixTreeBuilder treeBuilder;
+
+    @Setup
+    public void setUp() throws IOException {
+        treeBuilder = new SuffixTreeBuilder(Fixtures.train(), Fixtures.MAX_SUFFIX_LENGTH, Fixtures.MAX_WORD_FREQUENCY);
+    }
+
+    @Benchmark
+    public SuffixTree buildUpperCaseTree() {
+        return treeBuilder.buildUpperCaseTree();
+    }
+
+    @Benchmark
+    public SuffixTree buildLowerCaseTree() {
+        return treeBuilder.buildLowerCaseTree();
+    }
+
+    @Benchmark
+    public SuffixTreeBuilder.Trees buildTrees() {
+        return treeBuilder.buildTrees();
+    }
+
+}
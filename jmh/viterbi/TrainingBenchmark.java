@@ -0,0 +1,39 @@
+package viterbi;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// BigramModel.train on WSJ_24, reading the file and counting into a new model each call,
+// with the word/tag counts on the heap or in direct buffers.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrainingBenchmark {
+
+    @Param({"HEAP", "OFF_HEAP"})
+    public String counts;
+
+    @Benchmark
+    public BigramModel train() throws IOException {
+        WordTagCounts wordTagCounts = counts.equals("OFF_HEAP") ? new OffHeapWordTagCounts() : new HeapWordTagCounts();
+        BigramModel bigramModel = new BigramModel(Fixtures.MAX_SUFFIX_LENGTH, wordTagCounts);
+        bigramModel.train(Fixtures.TRAINING_FILE);
+
+        return bigramModel;
+    }
+
+}
@@ -0,0 +1,67 @@
+package viterbi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Tags each unknown word of WSJ_23 as a one-word sentence, so the time is dominated by
+// its emission probabilities: from the default emission cache, from suffix tree lookups
+// with no cache to speak of, or from a precomputed EmissionTable.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnknownEmissionBenchmark {
+
+    @Param({"CACHE", "NO_CACHE", "TABLE"})
+    public String emissions;
+
+    private Viterbi viterbi;
+    private List<List<String>> unknownWords;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        BigramModel bigramModel = Fixtures.train();
+        viterbi = Fixtures.createViterbi(bigramModel);
+        if (emissions.equals("NO_CACHE")) {
+            viterbi.setEmissionCache(new EmissionCache(1));
+        } else if (emissions.equals("TABLE")) {
+            viterbi.precomputeEmissions();
+        }
+
+        unknownWords = new ArrayList<>();
+        for (List<String> sentence : Fixtures.readTestSentences()) {
+            for (String word : sentence) {
+                if (bigramModel.getWordCount(word) == 0) {
+                    unknownWords.add(Arrays.asList(word));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public List<String> run() {
+        List<String> word = unknownWords.get(next);
+        next = next + 1 == unknownWords.size() ? 0 : next + 1;
+
+        return viterbi.run(word);
+    }
+
+}
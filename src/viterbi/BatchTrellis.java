@@ -0,0 +1,44 @@
+package viterbi;
+
+// Trellis columns of up to batchSize sentences decoded in lock-step. Columns are stored
+// state-major, entry state * batchSize + b belonging to sentence b of the batch, so the
+// innermost loop runs over sentences with independent running maxima.
+class BatchTrellis {
+
+    int batchSize;
+    double[] previous;
+    double[] current;
+    double[][] emission; // emission row of each sentence at the current time step
+    double[][] unknownEmission; // per-sentence buffers for rows computed from the suffix trees
+    double[] maxProb;
+    int[] maxPrevState;
+    int[] backpointer; // indexed by (timeStep * batchSize + b) * numTags + state
+    int[] path;
+
+    BatchTrellis(int batchSize, int numTags) {
+        this.batchSize = batchSize;
+        previous = new double[numTags * batchSize];
+        current = new double[numTags * batchSize];
+        emission = new double[batchSize][];
+        unknownEmission = new double[batchSize][numTags];
+        maxProb = new double[batchSize];
+        maxPrevState = new int[batchSize];
+        backpointer = new int[0];
+        path = new int[0];
+    }
+
+    void ensureCapacity(int numTags, int maxSentenceLength) {
+        if (path.length < maxSentenceLength) {
+            int capacity = Math.max(maxSentenceLength, 2 * path.length);
+            backpointer = new int[capacity * batchSize * numTags];
+            path = new int[capacity];
+        }
+    }
+
+    void swap() {
+        double[] column = previous;
+        previous = current;
+        current = column;
+    }
+
+}
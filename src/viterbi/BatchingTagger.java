@@ -0,0 +1,229 @@
+package viterbi;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Collects small tagging requests into batches of up to maxBatchSize sentences, waiting
+// at most maxBatchDelayMillis after the first request of a batch for more to arrive, and
+// tags each batch on a pool of worker threads. The model is fetched once per batch, so a
+// newly published model is picked up by the next batch without interrupting running ones.
+// At most numThreads batches are handed to the pool at a time and at most
+// maxQueuedRequests requests wait behind them; further requests are rejected.
+//
+// A tagger over a ModelRegistry serves all of its models from one queue and one pool:
+// a batch may hold requests for several models, and takes a lease on each of them.
+public class BatchingTagger {
+
+    private Leases leases;
+    private Integer maxBatchSize;
+    private Long maxBatchDelayMillis;
+    private BlockingQueue<Request> requests;
+    private ExecutorService workers;
+    private Semaphore freeWorkers;
+    private Thread dispatcher;
+    private volatile boolean running;
+
+    public BatchingTagger(Supplier<Viterbi> viterbi, Integer numThreads, Integer maxBatchSize, Long maxBatchDelayMillis, Integer maxQueuedRequests) {
+        this(model -> ModelRegistry.Lease.of(viterbi.get()), numThreads, maxBatchSize, maxBatchDelayMillis, maxQueuedRequests);
+    }
+
+    // Tags with the models of registry, holding a lease on each model a batch uses.
+    public BatchingTagger(ModelRegistry registry, Integer numThreads, Integer maxBatchSize, Long maxBatchDelayMillis, Integer maxQueuedRequests) {
+        this(registry::acquire, numThreads, maxBatchSize, maxBatchDelayMillis, maxQueuedRequests);
+    }
+
+    private BatchingTagger(Leases leases, Integer numThreads, Integer maxBatchSize, Long maxBatchDelayMillis, Integer maxQueuedRequests) {
+        this.leases = leases;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayMillis = maxBatchDelayMillis;
+        requests = new LinkedBlockingQueue<>(maxQueuedRequests);
+        workers = Executors.newFixedThreadPool(numThreads);
+        freeWorkers = new Semaphore(numThreads);
+        running = true;
+
+        dispatcher = new Thread(this::dispatch, "tagger-dispatcher");
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+    }
+
+    // Tags with the only model of a tagger built from a Supplier.
+    public CompletableFuture<List<List<String>>> tag(List<List<String>> sentences) {
+        return tag(null, sentences);
+    }
+
+    // Tags with the named model of the registry; a tagger built from a Supplier ignores model.
+    public CompletableFuture<List<List<String>>> tag(String model, List<List<String>> sentences) {
+        Request request = new Request(model, sentences);
+        String error = validate(sentences);
+        if (!running) {
+            request.result.completeExceptionally(new IllegalStateException("Tagger is shut down"));
+        } else if (error != null) {
+            request.result.completeExceptionally(new IllegalArgumentException(error));
+        } else if (sentences.isEmpty()) {
+            request.result.complete(new ArrayList<>());
+        } else if (!requests.offer(request)) {
+            request.result.completeExceptionally(new RejectedExecutionException("Too many requests are waiting to be tagged"));
+        }
+
+        return request.result;
+    }
+
+    public void shutdown() {
+        running = false;
+        dispatcher.interrupt();
+        workers.shutdown();
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>();
+        try {
+            while (running) {
+                batch = new ArrayList<>();
+                batch.add(requests.take());
+                Integer batchSize = batch.get(0).sentences.size();
+
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+                while (batchSize < maxBatchSize) {
+                    Request request = requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                    batchSize += request.sentences.size();
+                }
+
+                // each model's share of the batch is decoded as its own task, so a model
+                // that is still loading does not hold up the others
+                Map<String, List<Request>> requestsByModel = new LinkedHashMap<>();
+                for (Request request : batch) {
+                    requestsByModel.computeIfAbsent(request.model, model -> new ArrayList<>()).add(request);
+                }
+                for (Map.Entry<String, List<Request>> entry : requestsByModel.entrySet()) {
+                    // waiting for a free worker leaves the backlog in the bounded queue
+                    freeWorkers.acquire();
+                    execute(entry.getKey(), entry.getValue());
+                    batch.removeAll(entry.getValue());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Request request : batch) {
+            request.result.completeExceptionally(new IllegalStateException("Tagger is shut down"));
+        }
+        Request request;
+        while ((request = requests.poll()) != null) {
+            request.result.completeExceptionally(new IllegalStateException("Tagger is shut down"));
+        }
+    }
+
+    private void execute(String model, List<Request> batch) {
+        try {
+            workers.execute(() -> {
+                try {
+                    tagBatch(model, batch);
+                } finally {
+                    freeWorkers.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            freeWorkers.release();
+            // shut down while the batch was collected
+            for (Request request : batch) {
+                request.result.completeExceptionally(new IllegalStateException("Tagger is shut down"));
+            }
+        }
+    }
+
+    // The sentences of all requests in the batch are decoded together, so short requests
+    // still fill the model's batched kernel. If that fails, each request is decoded on its
+    // own so one bad request does not fail the others.
+    private void tagBatch(String model, List<Request> batch) {
+        List<List<String>> sentences = new ArrayList<>();
+        for (Request request : batch) {
+            sentences.addAll(request.sentences);
+        }
+
+        try (ModelRegistry.Lease lease = leases.acquire(model)) {
+            Viterbi viterbi = lease.getViterbi();
+            List<List<String>> sentenceTags;
+            try {
+                sentenceTags = viterbi.runBatch(sentences);
+            } catch (RuntimeException e) {
+                for (Request request : batch) {
+                    tagRequest(viterbi, request);
+                }
+                return;
+            }
+
+            int start = 0;
+            for (Request request : batch) {
+                int end = start + request.sentences.size();
+                request.result.complete(new ArrayList<>(sentenceTags.subList(start, end)));
+                start = end;
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static void tagRequest(Viterbi viterbi, Request request) {
+        try {
+            request.result.complete(viterbi.runBatch(request.sentences));
+        } catch (RuntimeException e) {
+            request.result.completeExceptionally(e);
+        }
+    }
+
+    // Why the decoder cannot tag the sentences, or null when it can.
+    private static String validate(List<List<String>> sentences) {
+        for (List<String> sentence : sentences) {
+            if (sentence == null) {
+                return "Null sentence";
+            }
+            for (String word : sentence) {
+                if (word == null || word.isEmpty()) {
+                    return word == null ? "Null word" : "Empty word";
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private static class Request {
+
+        String model;
+        List<List<String>> sentences;
+        CompletableFuture<List<List<String>>> result;
+
+        Request(String model, List<List<String>> sentences) {
+            this.model = model;
+            this.sentences = sentences;
+            result = new CompletableFuture<>();
+        }
+
+    }
+
+    private interface Leases {
+
+        ModelRegistry.Lease acquire(String model) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,566 @@
+package viterbi;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.function.Function;
+
+// Times each stage of the tagger on real corpus files. Every section warms up before
+// measuring and reports bytes allocated by the benchmark thread and garbage collections
+// during the measured rounds, so allocation regressions show up next to time regressions.
+public class Benchmark {
+
+    private static final Integer WARMUP_ROUNDS = 3;
+    private static final Integer MEASURED_ROUNDS = 5;
+    private static final int[] SENTENCE_LENGTH_BUCKETS = {10, 20, 30, 40, Integer.MAX_VALUE};
+    private static final int[] BEAM_WIDTHS = {1, 2, 3, 4, 8, 16};
+    private static final double[] BEAM_THRESHOLDS = {Math.log(10), Math.log(1000), Double.POSITIVE_INFINITY};
+    private static final int[] K_BEST = {1, 4, 16};
+    private static final Double CONFIDENT_POSTERIOR = 0.9;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            String errMsg = "Expected [TRAINING_FILENAME] [TEST_WORDS_FILENAME] [MAX_SUFFIX_LENGTH] [MAX_WORD_FREQUENCY], got " + args.length + " args.";
+            System.err.println(errMsg);
+            System.exit(99);
+        }
+
+        Integer maxSuffixLength = Integer.parseInt(args[2]);
+        Integer maxWordFrequency = Integer.parseInt(args[3]);
+
+        // the training files may be comma-separated; reading and training are timed on the first
+        List<File> trainFiles = CorpusReader.getFiles(args[0]);
+        BigramModel bigramModel = new BigramModel(maxSuffixLength);
+        try {
+            bigramModel.train(trainFiles, 1);
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+        SuffixTreeBuilder treeBuilder = new SuffixTreeBuilder(bigramModel, maxSuffixLength, maxWordFrequency);
+        SuffixTreeBuilder.Trees trees = treeBuilder.buildTrees();
+        Viterbi viterbi = new Viterbi(bigramModel, trees.getUpperCaseTree(), trees.getLowerCaseTree(), maxSuffixLength);
+
+        // a tagged .pos test file also gives the accuracy of each decoder
+        List<List<String>> goldTags = new ArrayList<>();
+        List<List<String>> sentences = readSentences(new File(args[1]), goldTags);
+        benchmarkReader(trainFiles.get(0));
+        benchmarkTraining(trainFiles.get(0), maxSuffixLength);
+        benchmarkCountStores(trainFiles.get(0), maxSuffixLength);
+        benchmarkSuffixTrees(bigramModel, treeBuilder, sentences, maxSuffixLength);
+        benchmarkUnknownEmissions(bigramModel, viterbi, sentences);
+        benchmarkSentenceLengths(viterbi, sentences);
+        benchmarkDecode(viterbi, sentences, goldTags);
+        benchmarkBeam(viterbi, sentences, goldTags);
+        benchmarkPosteriors(viterbi, sentences, goldTags);
+        benchmarkTrigram(trainFiles, viterbi, sentences, goldTags);
+    }
+
+    private static void benchmarkTraining(File file, Integer maxSuffixLength) throws IOException {
+        Integer numTokens = 0;
+        long trainTime = 0;
+        long allocated = 0;
+        long collections = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long startAllocated = getAllocatedBytes();
+            long startCollections = getCollectionCount();
+            long start = System.nanoTime();
+            BigramModel model = new BigramModel(maxSuffixLength);
+            model.train(file);
+            if (round >= WARMUP_ROUNDS) {
+                trainTime += System.nanoTime() - start;
+                allocated += getAllocatedBytes() - startAllocated;
+                collections += getCollectionCount() - startCollections;
+            }
+
+            numTokens = 0;
+            for (String tag : model.getTags()) {
+                numTokens += model.getTagCount(tag);
+            }
+        }
+
+        System.out.printf("Training on %s: %.1f ms, %.0f tokens/s, %.0f B/token, %d GCs%n",
+                file.getName(), trainTime / (MEASURED_ROUNDS * 1e6),
+                MEASURED_ROUNDS * numTokens / (trainTime / 1e9),
+                allocated / (double) (MEASURED_ROUNDS * numTokens), collections);
+    }
+
+    private static void benchmarkCountStores(File file, Integer maxSuffixLength) throws IOException {
+        BigramModel heapModel = null;
+        for (WordTagCounts store : Arrays.asList(new HeapWordTagCounts(), new OffHeapWordTagCounts())) {
+            BigramModel model = null;
+            long trainTime = 0;
+            for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                long start = System.nanoTime();
+                model = new BigramModel(maxSuffixLength, store.createEmpty());
+                model.train(file);
+                if (round >= WARMUP_ROUNDS) {
+                    trainTime += System.nanoTime() - start;
+                }
+            }
+
+            long retained = getRetainedHeap();
+            model = null;
+            retained -= getRetainedHeap();
+            model = new BigramModel(maxSuffixLength, store.createEmpty());
+            model.train(file);
+            if (heapModel == null) {
+                heapModel = model;
+            }
+
+            WordTagCounts counts = model.getWordTagCounts();
+            System.out.printf("%s counts: %d words, %d KB in the store, %d KB retained on the heap, trained in %.1f ms, %s%n",
+                    store.getClass().getSimpleName(), counts.getNumWords(), counts.getSizeInBytes() / 1024,
+                    retained / 1024, trainTime / (MEASURED_ROUNDS * 1e6),
+                    hasSameCounts(heapModel, model) ? "same counts" : "DIFFERENT counts");
+        }
+    }
+
+    private static boolean hasSameCounts(BigramModel expected, BigramModel actual) {
+        if (!expected.getTags().equals(actual.getTags()) || !expected.getWords().equals(actual.getWords())) {
+            return false;
+        }
+        for (String word : expected.getWords()) {
+            if (!expected.getWordCount(word).equals(actual.getWordCount(word))
+                    || !expected.getWordTagCounts(word).equals(actual.getWordTagCounts(word))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long getRetainedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void benchmarkSuffixTrees(BigramModel bigramModel, SuffixTreeBuilder treeBuilder, List<List<String>> sentences, Integer maxSuffixLength) {
+        SuffixTreeBuilder.Trees trees = null;
+        long buildTime = 0;
+        long perCaseBuildTime = 0;
+        long allocated = 0;
+        long collections = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long startAllocated = getAllocatedBytes();
+            long startCollections = getCollectionCount();
+            long start = System.nanoTime();
+            trees = treeBuilder.buildTrees();
+            if (round >= WARMUP_ROUNDS) {
+                buildTime += System.nanoTime() - start;
+                allocated += getAllocatedBytes() - startAllocated;
+                collections += getCollectionCount() - startCollections;
+            }
+
+            start = System.nanoTime();
+            treeBuilder.buildUpperCaseTree();
+            treeBuilder.buildLowerCaseTree();
+            if (round >= WARMUP_ROUNDS) {
+                perCaseBuildTime += System.nanoTime() - start;
+            }
+        }
+        SuffixTree upperCaseTree = trees.getUpperCaseTree();
+        SuffixTree lowerCaseTree = trees.getLowerCaseTree();
+
+        // allocation is only counted on the calling thread, which builds the lower-case tree
+        System.out.printf("Suffix trees: %d + %d nodes, %d KB, built in %.1f ms (%.1f ms one case at a time), %d KB allocated per build, %d GCs%n",
+                upperCaseTree.getNumNodes(), lowerCaseTree.getNumNodes(),
+                (upperCaseTree.getSizeInBytes() + lowerCaseTree.getSizeInBytes()) / 1024,
+                buildTime / (MEASURED_ROUNDS * 1e6), perCaseBuildTime / (MEASURED_ROUNDS * 1e6),
+                allocated / (MEASURED_ROUNDS * 1024), collections);
+        System.out.println("Last build: " + trees);
+
+        List<String> unknownWords = getUnknownWords(bigramModel, sentences);
+        if (unknownWords.isEmpty()) {
+            return;
+        }
+
+        double[] distribution = new double[bigramModel.getTags().size()];
+        long lookupTime = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String word : unknownWords) {
+                String suffix = word.substring(word.length() - Math.min(maxSuffixLength, word.length()));
+                SuffixTree tree = Character.isUpperCase(word.charAt(0)) ? upperCaseTree : lowerCaseTree;
+                tree.getTagDistribution(suffix, distribution);
+            }
+            if (round >= WARMUP_ROUNDS) {
+                lookupTime += System.nanoTime() - start;
+            }
+        }
+
+        System.out.printf("Unknown-word tag distribution: %.1f ns/word (%d unknown tokens)%n",
+                lookupTime / (double) (MEASURED_ROUNDS * unknownWords.size()), unknownWords.size());
+
+        // the per-tag compatibility API, one walk down the tree per tag
+        List<String> tags = bigramModel.getTags();
+        long perTagTime = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (String word : unknownWords) {
+                String suffix = word.substring(word.length() - Math.min(maxSuffixLength, word.length()));
+                SuffixTree tree = Character.isUpperCase(word.charAt(0)) ? upperCaseTree : lowerCaseTree;
+                for (String tag : tags) {
+                    tree.getTagSuffixProbability(suffix, tag);
+                }
+            }
+            if (round >= WARMUP_ROUNDS) {
+                perTagTime += System.nanoTime() - start;
+            }
+        }
+
+        System.out.printf("Unknown-word getTagSuffixProbability over %d tags: %.1f ns/word%n",
+                tags.size(), perTagTime / (double) (MEASURED_ROUNDS * unknownWords.size()));
+    }
+
+    // Decodes each unknown word as a one-word sentence, once with the emission cache,
+    // once with a cache too small to ever hit and once with precomputed emissions.
+    private static void benchmarkUnknownEmissions(BigramModel bigramModel, Viterbi viterbi, List<List<String>> sentences) {
+        List<List<String>> unknownWords = new ArrayList<>();
+        for (String word : getUnknownWords(bigramModel, sentences)) {
+            unknownWords.add(Arrays.asList(word));
+        }
+        if (unknownWords.isEmpty()) {
+            return;
+        }
+
+        EmissionCache cache = viterbi.getEmissionCache();
+        for (EmissionCache emissionCache : Arrays.asList(new EmissionCache(cache.getCapacity()), new EmissionCache(1))) {
+            viterbi.setEmissionCache(emissionCache);
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                decode(viterbi::run, unknownWords);
+            }
+
+            long startAllocated = getAllocatedBytes();
+            long start = System.nanoTime();
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                decode(viterbi::run, unknownWords);
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = getAllocatedBytes() - startAllocated;
+
+            System.out.printf("Unknown-word emission (cache capacity %d): %.1f ns/word, %.0f B/word%n",
+                    emissionCache.getCapacity(), elapsed / (double) (MEASURED_ROUNDS * unknownWords.size()),
+                    allocated / (double) (MEASURED_ROUNDS * unknownWords.size()));
+        }
+        viterbi.setEmissionCache(cache);
+
+        long start = System.nanoTime();
+        EmissionTable table = viterbi.precomputeEmissions();
+        System.out.printf("Emission table: %d rows, %d KB, computed in %.1f ms%n",
+                table.getNumRows(), table.getSizeInBytes() / 1024, (System.nanoTime() - start) / 1e6);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            decode(viterbi::run, unknownWords);
+        }
+        long startAllocated = getAllocatedBytes();
+        start = System.nanoTime();
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            decode(viterbi::run, unknownWords);
+        }
+        System.out.printf("Unknown-word emission (precomputed): %.1f ns/word, %.0f B/word%n",
+                (System.nanoTime() - start) / (double) (MEASURED_ROUNDS * unknownWords.size()),
+                (getAllocatedBytes() - startAllocated) / (double) (MEASURED_ROUNDS * unknownWords.size()));
+        viterbi.setEmissionTable(null);
+    }
+
+    // Per-sentence latency of Viterbi.run, grouped by sentence length.
+    private static void benchmarkSentenceLengths(Viterbi viterbi, List<List<String>> sentences) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            decode(viterbi::run, sentences);
+        }
+
+        System.out.println("Sentence latency in " + viterbi.getDecodeMode() + " mode:");
+        Integer minLength = 1;
+        for (int maxLength : SENTENCE_LENGTH_BUCKETS) {
+            List<List<String>> bucket = new ArrayList<>();
+            Integer numTokens = 0;
+            for (List<String> sentence : sentences) {
+                if (sentence.size() >= minLength && sentence.size() <= maxLength) {
+                    bucket.add(sentence);
+                    numTokens += sentence.size();
+                }
+            }
+
+            if (!bucket.isEmpty()) {
+                long[] latencies = new long[MEASURED_ROUNDS * bucket.size()];
+                long startAllocated = getAllocatedBytes();
+                long startCollections = getCollectionCount();
+                for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                    for (int i = 0; i < bucket.size(); i++) {
+                        long start = System.nanoTime();
+                        viterbi.run(bucket.get(i));
+                        latencies[round * bucket.size() + i] = System.nanoTime() - start;
+                    }
+                }
+                long allocated = getAllocatedBytes() - startAllocated;
+                long collections = getCollectionCount() - startCollections;
+                Arrays.sort(latencies);
+
+                String lengths = maxLength == Integer.MAX_VALUE ? minLength + "+" : minLength + "-" + maxLength;
+                System.out.printf("  %-6s words %5d sentences  p50 %8.1f us  p99 %8.1f us  %6.0f B/token  %d GCs%n",
+                        lengths, bucket.size(), latencies[latencies.length / 2] / 1e3,
+                        latencies[(int) (latencies.length * 0.99)] / 1e3,
+                        allocated / (double) (MEASURED_ROUNDS * numTokens), collections);
+            }
+
+            minLength = maxLength == Integer.MAX_VALUE ? maxLength : maxLength + 1;
+        }
+    }
+
+    private static void benchmarkDecode(Viterbi viterbi, List<List<String>> sentences, List<List<String>> goldTags) {
+        System.out.println("Decoding " + sentences.size() + " sentences, " + getNumTokens(sentences) + " tokens, VECTOR using " + Viterbi.getColumnKernelName());
+
+        viterbi.setDecodeMode(DecodeMode.LOG);
+        List<List<String>> reference = decode(viterbi::run, sentences);
+
+        for (DecodeMode mode : DecodeMode.values()) {
+            viterbi.setDecodeMode(mode);
+            measureDecode(perSentence(viterbi::run), sentences, reference, goldTags, mode.toString());
+        }
+        viterbi.setDecodeMode(DecodeMode.LOG);
+        measureDecode(viterbi::runBatch, sentences, reference, goldTags, "BATCH");
+        viterbi.precomputeEmissions();
+        measureDecode(perSentence(viterbi::run), sentences, reference, goldTags, "LOG TABLE");
+        viterbi.setEmissionTable(null);
+
+        EmissionCache cache = viterbi.getEmissionCache();
+        System.out.printf("Emission cache: %d hits, %d misses, %d evictions (%.1f%% hit rate)%n",
+                cache.getHitCount(), cache.getMissCount(), cache.getEvictionCount(), 100 * cache.getHitRate());
+    }
+
+    // Speed and accuracy of BEAM over a grid of beam widths and thresholds.
+    private static void benchmarkBeam(Viterbi viterbi, List<List<String>> sentences, List<List<String>> goldTags) {
+        viterbi.setDecodeMode(DecodeMode.LOG);
+        List<List<String>> reference = decode(viterbi::run, sentences);
+
+        Integer beamWidth = viterbi.getBeamWidth();
+        Double beamThreshold = viterbi.getBeamThreshold();
+        viterbi.setDecodeMode(DecodeMode.BEAM);
+        for (int round = 0; round < WARMUP_ROUNDS * BEAM_WIDTHS.length; round++) {
+            decode(viterbi::run, sentences); // so the first rows are not timed while BEAM is still being compiled
+        }
+
+        for (double threshold : BEAM_THRESHOLDS) {
+            for (int width : BEAM_WIDTHS) {
+                viterbi.setBeamWidth(width);
+                viterbi.setBeamThreshold(threshold);
+                measureDecode(perSentence(viterbi::run), sentences, reference, goldTags, String.format("BEAM %2d %4.1f", width, threshold));
+            }
+        }
+        viterbi.setBeamWidth(beamWidth);
+        viterbi.setBeamThreshold(beamThreshold);
+        viterbi.setDecodeMode(DecodeMode.LOG);
+    }
+
+    // Forward-backward posterior decoding and k-best lists, whose first path should be the
+    // LOG path. With gold tags, also how well the posterior of the LOG tag predicts it being right.
+    private static void benchmarkPosteriors(Viterbi viterbi, List<List<String>> sentences, List<List<String>> goldTags) {
+        viterbi.setDecodeMode(DecodeMode.LOG);
+        List<List<String>> reference = decode(viterbi::run, sentences);
+
+        ForwardBackward forwardBackward = new ForwardBackward(viterbi);
+        measureDecode(perSentence(forwardBackward::run), sentences, reference, goldTags, "POSTERIOR");
+        KBestViterbi kBestViterbi = new KBestViterbi(viterbi);
+        for (int k : K_BEST) {
+            measureDecode(perSentence(sentence -> kBestViterbi.run(sentence, k).get(0).getTags()), sentences, reference, goldTags, "K-BEST " + k);
+        }
+
+        if (goldTags.isEmpty()) {
+            return;
+        }
+        double totalPosterior = 0.0;
+        Integer numConfident = 0;
+        Integer correctConfident = 0;
+        Integer numTokens = 0;
+        for (int i = 0; i < sentences.size(); i++) {
+            double[][] posteriors = forwardBackward.getPosteriors(sentences.get(i));
+            for (int j = 0; j < sentences.get(i).size(); j++) {
+                String tag = reference.get(i).get(j);
+                double posterior = posteriors[j][viterbi.tags.indexOf(tag)];
+                totalPosterior += posterior;
+                numTokens++;
+                if (posterior >= CONFIDENT_POSTERIOR) {
+                    numConfident++;
+                    correctConfident += tag.equals(goldTags.get(i).get(j)) ? 1 : 0;
+                }
+            }
+        }
+        System.out.printf("Posterior of the LOG tag: mean %.3f, %.1f%% of tokens at least %.1f and %.2f%% of those accurate%n",
+                totalPosterior / numTokens, 100.0 * numConfident / numTokens, CONFIDENT_POSTERIOR, 100.0 * correctConfident / numConfident);
+    }
+
+    private static void benchmarkTrigram(List<File> trainFiles, Viterbi viterbi, List<List<String>> sentences, List<List<String>> goldTags) {
+        TrigramModel trigramModel = null;
+        long trainTime = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            trigramModel = new TrigramModel(viterbi.tags);
+            trigramModel.train(trainFiles);
+            trigramModel.freeze();
+            if (round >= WARMUP_ROUNDS) {
+                trainTime += System.nanoTime() - start;
+            }
+        }
+
+        double[] lambdas = trigramModel.getLambdas();
+        System.out.printf("Trigram model: %d distinct trigrams, %d KB, trained in %.1f ms, lambdas %.3f %.3f %.3f%n",
+                trigramModel.getNumTrigrams(), trigramModel.getSizeInBytes() / 1024, trainTime / (MEASURED_ROUNDS * 1e6),
+                lambdas[0], lambdas[1], lambdas[2]);
+
+        viterbi.setDecodeMode(DecodeMode.LOG);
+        List<List<String>> reference = decode(viterbi::run, sentences);
+        TrigramViterbi trigramViterbi = new TrigramViterbi(viterbi, trigramModel);
+        measureDecode(perSentence(trigramViterbi::run), sentences, reference, goldTags, "TRIGRAM");
+    }
+
+    private static void measureDecode(Function<List<List<String>>, List<List<String>>> tagger, List<List<String>> sentences, List<List<String>> reference, List<List<String>> goldTags, String label) {
+        Integer numTokens = getNumTokens(sentences);
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            tagger.apply(sentences);
+        }
+
+        long startAllocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        List<List<String>> sentenceTags = null;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            sentenceTags = tagger.apply(sentences);
+        }
+        double nsPerToken = (System.nanoTime() - start) / (double) (MEASURED_ROUNDS * numTokens);
+        double bytesPerToken = (getAllocatedBytes() - startAllocated) / (double) (MEASURED_ROUNDS * numTokens);
+
+        Integer mismatches = 0;
+        Integer correct = 0;
+        for (int i = 0; i < sentences.size(); i++) {
+            if (!sentenceTags.get(i).equals(reference.get(i))) {
+                mismatches++;
+            }
+            if (!goldTags.isEmpty()) {
+                for (int j = 0; j < sentenceTags.get(i).size(); j++) {
+                    correct += sentenceTags.get(i).get(j).equals(goldTags.get(i).get(j)) ? 1 : 0;
+                }
+            }
+        }
+
+        String accuracy = goldTags.isEmpty() ? "" : String.format(" %7.3f%% accurate", 100.0 * correct / numTokens);
+        System.out.printf("%-14s %10.1f ns/token %12.0f tokens/s %8.0f B/token %6d sentences differ from LOG%s%n",
+                label, nsPerToken, 1e9 / nsPerToken, bytesPerToken, mismatches, accuracy);
+    }
+
+    private static Integer getNumTokens(List<List<String>> sentences) {
+        Integer numTokens = 0;
+        for (List<String> sentence : sentences) {
+            numTokens += sentence.size();
+        }
+
+        return numTokens;
+    }
+
+    private static Function<List<List<String>>, List<List<String>>> perSentence(Function<List<String>, List<String>> tagger) {
+        return sentences -> decode(tagger, sentences);
+    }
+
+    private static List<List<String>> decode(Function<List<String>, List<String>> tagger, List<List<String>> sentences) {
+        List<List<String>> sentenceTags = new ArrayList<>(sentences.size());
+        for (List<String> sentence : sentences) {
+            sentenceTags.add(tagger.apply(sentence));
+        }
+
+        return sentenceTags;
+    }
+
+    private static void benchmarkReader(File file) throws IOException {
+        long scannerTime = 0;
+        long readerTime = 0;
+        Integer numLines = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            Scanner sc = new Scanner(file);
+            numLines = 0;
+            while (sc.hasNextLine()) {
+                String line = sc.nextLine();
+                if (!line.isEmpty()) {
+                    String[] wordTag = line.split("\t");
+                    numLines += wordTag.length > 1 ? 1 : 0;
+                }
+            }
+            sc.close();
+
+            long middle = System.nanoTime();
+            CorpusReader reader = new CorpusReader(file);
+            while (reader.nextLine()) {
+                reader.getWord();
+                reader.getTag();
+            }
+            reader.close();
+
+            if (round >= WARMUP_ROUNDS) {
+                scannerTime += middle - start;
+                readerTime += System.nanoTime() - middle;
+            }
+        }
+
+        double megabytes = MEASURED_ROUNDS * file.length() / (1024.0 * 1024.0);
+        System.out.printf("Reading %s (%d tagged lines): Scanner %.1f MB/s, CorpusReader %.1f MB/s%n",
+                file.getName(), numLines, megabytes / (scannerTime / 1e9), megabytes / (readerTime / 1e9));
+    }
+
+    private static List<String> getUnknownWords(BigramModel bigramModel, List<List<String>> sentences) {
+        List<String> unknownWords = new ArrayList<>();
+        for (List<String> sentence : sentences) {
+            for (String word : sentence) {
+                if (bigramModel.getWordCount(word) == 0) {
+                    unknownWords.add(word);
+                }
+            }
+        }
+
+        return unknownWords;
+    }
+
+    // Bytes allocated so far by the calling thread.
+    private static long getAllocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+
+    private static long getCollectionCount() {
+        long collections = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(0, collector.getCollectionCount());
+        }
+
+        return collections;
+    }
+
+    // Reads the sentences of a .words or .pos file, adding the tags to goldTags when every word is tagged.
+    private static List<List<String>> readSentences(File words, List<List<String>> goldTags) throws IOException {
+        List<List<String>> sentences = new ArrayList<>();
+        CorpusReader reader = new CorpusReader(words);
+
+        List<String> sentence;
+        List<String> tags = new ArrayList<>();
+        Boolean tagged = true;
+        while ((sentence = reader.nextSentence(tags)) != null) {
+            sentences.add(sentence);
+            goldTags.add(tags);
+            tagged &= !tags.contains(null);
+            tags = new ArrayList<>();
+        }
+        reader.close();
+
+        if (!tagged) {
+            goldTags.clear();
+        }
+
+        return sentences;
+    }
+
+}
@@ -1,12 +1,18 @@
 package viterbi;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 public class BigramModel {
@@ -18,39 +24,46 @@ public class BigramModel {
     private Map<String, Integer> tagCount;
     private Map<String, Integer> tagStartCount;
     private Map<String, Map<String, Integer>> tagTransitionCount;
-    private Map<String, Map<String, Integer>> tagWordCount;
-    private Map<String, Integer> wordCount;
-    private Map<String, Map<String, Integer>> wordTagCount;
+    private List<String> tags;
+    private Map<String, Integer> tagIds;
+    private WordTagCounts wordTagCounts;
 
     public BigramModel(Integer maxSuffixLength) {
+        this(maxSuffixLength, WordTagCounts.create());
+    }
+
+    // Keeps word and word/tag counts in wordTagCounts, which should be empty.
+    public BigramModel(Integer maxSuffixLength, WordTagCounts wordTagCounts) {
         MAX_SUFFIX_LENGTH = maxSuffixLength;
 
         sentenceCount = 0;
         totalTagCount = 0;
 
-        tagCount = new HashMap<>();
-        tagStartCount = new HashMap<>();
-        tagTransitionCount = new HashMap<>();
-        tagWordCount = new HashMap<>();
-        wordCount = new HashMap<>();
-        wordTagCount = new HashMap<>();
+        // insertion-ordered, so tag and word ids follow first occurrence in the training
+        // data and do not depend on how training was split into shards
+        tagCount = new LinkedHashMap<>();
+        tagStartCount = new LinkedHashMap<>();
+        tagTransitionCount = new LinkedHashMap<>();
+        tags = new ArrayList<>();
+        tagIds = new HashMap<>();
+        this.wordTagCounts = wordTagCounts;
     }
 
-    public void train(File file) {
-        try {
-            Scanner sc = new Scanner(file);
+    public void train(File file) throws IOException {
+        try (CorpusReader reader = new CorpusReader(file)) {
             String prevTag = "";
 
-            while (sc.hasNextLine()) {
-                String line = sc.nextLine();
-                if (line.isEmpty()) {
+            while (reader.nextLine()) {
+                if (reader.isBlankLine()) {
                     prevTag = "";
                     continue;
                 }
 
-                String[] wordTag = line.split("\t");
-                String word = wordTag[0];
-                String tag = wordTag[1];
+                String word = reader.getWord();
+                String tag = reader.getTag();
+                if (tag == null) {
+                    throw new IOException(file + ":" + reader.getLineNumber() + ": expected a word and a tag separated by a tab");
+                }
 
                 incrementWordCount(word);
                 incrementTagCount(tag);
@@ -62,41 +75,107 @@ public class BigramModel {
                 }
                 prevTag = tag;
             }
+        }
+    }
 
-            sc.close();
-        } catch (FileNotFoundException e) {
-            System.err.println(e);
-            System.exit(1);
+    // Counts every file into its own shard on numThreads threads, then merges the shards
+    // in file order. The resulting counts are the same as training on each file in turn.
+    public void train(List<File> files, Integer numThreads) throws IOException {
+        List<Callable<BigramModel>> tasks = new ArrayList<>();
+        for (File file : files) {
+            tasks.add(() -> {
+                BigramModel shard = new BigramModel(MAX_SUFFIX_LENGTH, wordTagCounts.createEmpty());
+                shard.train(file);
+                return shard;
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, files.size())));
+        try {
+            for (Future<BigramModel> shard : pool.invokeAll(tasks)) {
+                merge(shard.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while training on " + files);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void merge(BigramModel other) {
+        sentenceCount += other.sentenceCount;
+        totalTagCount += other.totalTagCount;
+        addCounts(tagCount, other.tagCount);
+        addCounts(tagStartCount, other.tagStartCount);
+        addNestedCounts(tagTransitionCount, other.tagTransitionCount);
+
+        int[] otherTagIds = new int[other.tags.size()];
+        for (int tagId = 0; tagId < otherTagIds.length; tagId++) {
+            otherTagIds[tagId] = addTag(other.tags.get(tagId));
+        }
+
+        WordTagCounts otherCounts = other.wordTagCounts;
+        int[] wordTagIds = new int[otherTagIds.length];
+        int[] counts = new int[otherTagIds.length];
+        for (int otherWordId = 0; otherWordId < otherCounts.getNumWords(); otherWordId++) {
+            int wordId = wordTagCounts.addWord(otherCounts.getWord(otherWordId));
+            wordTagCounts.addWordCount(wordId, otherCounts.getWordCount(otherWordId));
+            int numWordTags = otherCounts.getTagCounts(otherWordId, wordTagIds, counts);
+            for (int i = 0; i < numWordTags; i++) {
+                wordTagCounts.addWordTagCount(wordId, otherTagIds[wordTagIds[i]], counts[i]);
+            }
+        }
+    }
+
+    private int addTag(String tag) {
+        Integer tagId = tagIds.get(tag);
+        if (tagId == null) {
+            tagId = tags.size();
+            tags.add(tag);
+            tagIds.put(tag, tagId);
+        }
+
+        return tagId;
+    }
+
+    private static void addCounts(Map<String, Integer> counts, Map<String, Integer> otherCounts) {
+        for (Map.Entry<String, Integer> entry : otherCounts.entrySet()) {
+            counts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+        }
+    }
+
+    private static void addNestedCounts(Map<String, Map<String, Integer>> counts, Map<String, Map<String, Integer>> otherCounts) {
+        for (Map.Entry<String, Map<String, Integer>> entry : otherCounts.entrySet()) {
+            addCounts(counts.computeIfAbsent(entry.getKey(), key -> new LinkedHashMap<>()), entry.getValue());
         }
     }
 
     public EvaluationResult evaluate(SuffixTree upperCaseTree, SuffixTree lowerCaseTree, File words, String outputFilename) {
+        return evaluate(upperCaseTree, lowerCaseTree, words, outputFilename, 1);
+    }
+
+    public EvaluationResult evaluate(SuffixTree upperCaseTree, SuffixTree lowerCaseTree, File words, String outputFilename, Integer numThreads) {
         List<List<String>> sentenceTags = new ArrayList<>();
         List<List<String>> sentences = new ArrayList<>();
 
         try {
-            Scanner sc = new Scanner(words);
+            CorpusReader reader = new CorpusReader(words);
             Viterbi viterbi = new Viterbi(this, upperCaseTree, lowerCaseTree, MAX_SUFFIX_LENGTH);
 
-            List<String> currentSentence = new ArrayList<>();
-            while (sc.hasNextLine()) {
-                String word = sc.nextLine();
-
-                if (word.isEmpty()) {
-                    sentenceTags.add(viterbi.run(currentSentence));
-                    sentences.add(currentSentence);
-                    currentSentence = new ArrayList<>();
-                } else {
-                    currentSentence.add(word);
-                }
+            List<String> sentence;
+            while ((sentence = reader.nextSentence()) != null) {
+                sentences.add(sentence);
             }
+            reader.close();
 
-            if (currentSentence.size() > 0) {
-                sentenceTags.add(viterbi.run(currentSentence));
-                sentences.add(currentSentence);
-            }
-            sc.close();
-        } catch (FileNotFoundException e) {
+            sentenceTags = viterbi.runAll(sentences, numThreads);
+        } catch (IOException | InterruptedException | ExecutionException e) {
             System.err.println(e);
             System.exit(1);
         }
@@ -104,8 +183,21 @@ public class BigramModel {
         return new EvaluationResult(sentences, sentenceTags);
     }
 
+    public CompiledModel compile() {
+        return new CompiledModel(this);
+    }
+
+    public List<String> getWords() {
+        List<String> words = new ArrayList<>(wordTagCounts.getNumWords());
+        for (int wordId = 0; wordId < wordTagCounts.getNumWords(); wordId++) {
+            words.add(wordTagCounts.getWord(wordId));
+        }
+
+        return words;
+    }
+
     public List<String> getWords(boolean upperCase) {
-        List<String> words = new ArrayList<>(wordCount.keySet());
+        List<String> words = getWords();
 
         if (upperCase) { // strings with first character capitalized
             words = words.stream().filter(word -> Character.isUpperCase(word.charAt(0))).collect(Collectors.toList());
@@ -117,12 +209,13 @@ public class BigramModel {
     }
 
     public Integer getWordCount(String word) {
-        return wordCount.getOrDefault(word, 0);
+        int wordId = wordTagCounts.getWordId(word);
+
+        return wordId < 0 ? 0 : wordTagCounts.getWordCount(wordId);
     }
 
     public void incrementWordCount(String word) {
-        Integer count = wordCount.getOrDefault(word, 0) + 1;
-        wordCount.put(word, count);
+        wordTagCounts.addWordCount(wordTagCounts.addWord(word), 1);
     }
 
     public Integer getTagStartCount(String tag) {
@@ -130,7 +223,7 @@ public class BigramModel {
     }
 
     public List<String> getTagsForWord(String word) {
-        return new ArrayList<>(wordTagCount.getOrDefault(word, new HashMap<>()).keySet());
+        return new ArrayList<>(getWordTagCounts(word).keySet());
     }
 
     public void incrementTagStartCount(String tag) {
@@ -140,9 +233,7 @@ public class BigramModel {
     }
 
     public List<String> getTags() {
-        List<String> tags = new ArrayList<>(tagCount.keySet());
-
-        return tags;
+        return new ArrayList<>(tags);
     }
 
     public Integer getTagCount(String tag) {
@@ -150,33 +241,46 @@ public class BigramModel {
     }
 
     public void incrementTagCount(String tag) {
+        addTag(tag);
         Integer count = tagCount.getOrDefault(tag, 0) + 1;
         tagCount.put(tag, count);
         totalTagCount++;
     }
 
     public Integer getTagWordCount(String tag, String word) {
-        return tagWordCount.getOrDefault(tag, new HashMap<>()).getOrDefault(word, 0);
+        return getWordTagCount(tag, word);
     }
 
-    public Integer getWordTagCount(String tag, String word) {
-        return wordTagCount.getOrDefault(word, new HashMap<>()).getOrDefault(tag, 0);
+    // The store behind the word and word/tag counts, whose tag ids are positions in
+    // getTags(). It must not be read while the model is being trained.
+    public WordTagCounts getWordTagCounts() {
+        return wordTagCounts;
     }
 
-    public void incrementTagWordCount(String tag, String word) {
-        if (!tagWordCount.containsKey(tag)) {
-            tagWordCount.put(tag, new HashMap<>());
+    public Map<String, Integer> getWordTagCounts(String word) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        int wordId = wordTagCounts.getWordId(word);
+        if (wordId >= 0) {
+            int[] wordTagIds = new int[tags.size()];
+            int[] tagCounts = new int[tags.size()];
+            int numWordTags = wordTagCounts.getTagCounts(wordId, wordTagIds, tagCounts);
+            for (int i = 0; i < numWordTags; i++) {
+                counts.put(tags.get(wordTagIds[i]), tagCounts[i]);
+            }
         }
 
-        Integer tWCount = tagWordCount.get(tag).getOrDefault(word, 0) + 1;
-        tagWordCount.get(tag).put(word, tWCount);
+        return counts;
+    }
 
-        if (!wordTagCount.containsKey(word)) {
-            wordTagCount.put(word, new HashMap<>());
-        }
+    public Integer getWordTagCount(String tag, String word) {
+        int wordId = wordTagCounts.getWordId(word);
+        Integer tagId = tagIds.get(tag);
 
-        Integer wTCount = wordTagCount.get(word).getOrDefault(tag, 0) + 1;
-        wordTagCount.get(word).put(tag, wTCount);
+        return wordId < 0 || tagId == null ? 0 : wordTagCounts.getWordTagCount(wordId, tagId);
+    }
+
+    public void incrementTagWordCount(String tag, String word) {
+        wordTagCounts.addWordTagCount(wordTagCounts.addWord(word), addTag(tag), 1);
     }
 
     public Integer getTagTransitionCount(String fromTag, String toTag) {
@@ -185,7 +289,7 @@ public class BigramModel {
 
     public void incrementTagTansitionCount(String fromTag, String toTag) {
         if (!tagTransitionCount.containsKey(fromTag)) {
-            tagTransitionCount.put(fromTag, new HashMap<>());
+            tagTransitionCount.put(fromTag, new LinkedHashMap<>());
         }
 
         Integer count = tagTransitionCount.get(fromTag).getOrDefault(toTag, 0) + 1;
@@ -193,7 +297,7 @@ public class BigramModel {
     }
 
     public Double getEmissionProbability(String tag, String word) {
-        Integer tagAndWordCount = tagWordCount.get(tag).getOrDefault(word, 0);
+        Integer tagAndWordCount = getWordTagCount(tag, word);
         Integer tagOccurences = tagCount.get(tag);
 
         return tagAndWordCount / (double) tagOccurences;
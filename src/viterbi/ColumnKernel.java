@@ -0,0 +1,14 @@
+package viterbi;
+
+// Computes one column of the log-space trellis from a transposed transition matrix:
+// transitions[state * stride + prevState] is log P(state | prevState), and each row is
+// padded to stride entries with negative infinity. prevProbs holds at least stride entries.
+public interface ColumnKernel {
+
+    // For every state below numTags sets probs[state] to the best prevProbs[prevState] +
+    // transition into state, plus emissionProbs[state], and backpointer[offset + state] to
+    // the first prevState reaching that best score (0 when no score is finite).
+    void computeColumn(double[] transitions, int stride, double[] prevProbs, double[] emissionProbs, int numTags,
+                       double[] probs, int[] backpointer, int offset);
+
+}
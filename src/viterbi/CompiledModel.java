@@ -0,0 +1,347 @@
+package viterbi;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+public class CompiledModel {
+
+    private static final int TRANSITION_ROW_ALIGNMENT = 8; // doubles in a 512-bit vector
+
+    private String[] tags;
+    private Map<String, Integer> tagIds;
+    private String[] words;
+    private Map<String, Integer> wordIds;
+    private double[] startProbability;
+    private double[] transitionProbability; // numTags x numTags, indexed by fromTag * numTags + toTag
+    private double[][] emissionProbability; // indexed by word id, then tag id
+    private double[] logStartProbability;
+    private double[] logTransitionProbability;
+    private double[] transposedLogTransitionProbability; // numTags x paddedNumTags, indexed by toTag * paddedNumTags + fromTag
+    private int paddedNumTags;
+    private double[][] logEmissionProbability;
+    private int[][] possibleTags; // tag dictionary, the tags each word was seen with in training
+    private int[] predecessorOffset; // CSR row pointers, predecessors of toTag are in [offset[toTag], offset[toTag + 1])
+    private int[] predecessor;
+    private double[] predecessorLogProbability;
+
+    public CompiledModel(BigramModel model) {
+        List<String> tagList = model.getTags();
+        Integer numTags = tagList.size();
+        tags = tagList.toArray(new String[0]);
+        indexTags();
+
+        startProbability = new double[numTags];
+        transitionProbability = new double[numTags * numTags];
+        for (int fromTag = 0; fromTag < numTags; fromTag++) {
+            startProbability[fromTag] = model.getStartProbability(tags[fromTag]);
+            for (int toTag = 0; toTag < numTags; toTag++) {
+                if (model.getTagTransitionCount(tags[fromTag], tags[toTag]) > 0) {
+                    transitionProbability[fromTag * numTags + toTag] = model.getTransitionProbability(tags[fromTag], tags[toTag]);
+                }
+            }
+        }
+
+        WordTagCounts wordTagCounts = model.getWordTagCounts();
+        double[] tagCount = new double[numTags];
+        for (int tag = 0; tag < numTags; tag++) {
+            tagCount[tag] = model.getTagCount(tags[tag]);
+        }
+        int[] wordTagIds = new int[numTags];
+        int[] counts = new int[numTags];
+        words = model.getWords().toArray(new String[0]);
+        emissionProbability = new double[words.length][];
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            double[] row = new double[numTags];
+            int numWordTags = wordTagCounts.getTagCounts(wordId, wordTagIds, counts);
+            for (int i = 0; i < numWordTags; i++) {
+                row[wordTagIds[i]] = counts[i] / tagCount[wordTagIds[i]];
+            }
+
+            emissionProbability[wordId] = row;
+        }
+
+        compile();
+    }
+
+    CompiledModel(String[] tags, String[] words, double[] startProbability, double[] transitionProbability, double[][] emissionProbability) {
+        this.tags = tags;
+        this.words = words;
+        this.startProbability = startProbability;
+        this.transitionProbability = transitionProbability;
+        this.emissionProbability = emissionProbability;
+        indexTags();
+        compile();
+    }
+
+    private void indexTags() {
+        tagIds = new HashMap<>();
+        for (int tag = 0; tag < tags.length; tag++) {
+            tagIds.put(tags[tag], tag);
+        }
+    }
+
+    // Replaces the tag and word strings with the instances intern returns, so that models
+    // loaded side by side keep one copy of their common vocabulary. Only called before the
+    // model is shared.
+    void internStrings(UnaryOperator<String> intern) {
+        for (int tag = 0; tag < tags.length; tag++) {
+            tags[tag] = intern.apply(tags[tag]);
+        }
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            words[wordId] = intern.apply(words[wordId]);
+        }
+
+        indexTags();
+        wordIds = new HashMap<>();
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            wordIds.put(words[wordId], wordId);
+        }
+    }
+
+    // True when other has the same tags, vocabulary and probabilities, so either can stand in for the other.
+    boolean hasSameContent(CompiledModel other) {
+        return Arrays.equals(tags, other.tags) && Arrays.equals(words, other.words)
+                && Arrays.equals(startProbability, other.startProbability)
+                && Arrays.equals(transitionProbability, other.transitionProbability)
+                && Arrays.deepEquals(emissionProbability, other.emissionProbability);
+    }
+
+    private void compile() {
+        wordIds = new HashMap<>();
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            wordIds.put(words[wordId], wordId);
+        }
+
+        logStartProbability = log(startProbability);
+        logTransitionProbability = log(transitionProbability);
+        logEmissionProbability = new double[emissionProbability.length][];
+        possibleTags = new int[emissionProbability.length][];
+        for (int wordId = 0; wordId < emissionProbability.length; wordId++) {
+            logEmissionProbability[wordId] = log(emissionProbability[wordId]);
+            possibleTags[wordId] = getNonZero(emissionProbability[wordId]);
+        }
+
+        compilePredecessors(tags.length);
+        compileTransposedTransitions(tags.length);
+    }
+
+    private void compileTransposedTransitions(int numTags) {
+        paddedNumTags = (numTags + TRANSITION_ROW_ALIGNMENT - 1) / TRANSITION_ROW_ALIGNMENT * TRANSITION_ROW_ALIGNMENT;
+        transposedLogTransitionProbability = new double[numTags * paddedNumTags];
+        Arrays.fill(transposedLogTransitionProbability, Double.NEGATIVE_INFINITY);
+        for (int fromTag = 0; fromTag < numTags; fromTag++) {
+            for (int toTag = 0; toTag < numTags; toTag++) {
+                transposedLogTransitionProbability[toTag * paddedNumTags + fromTag] = logTransitionProbability[fromTag * numTags + toTag];
+            }
+        }
+    }
+
+    private static int[] getNonZero(double[] row) {
+        int numNonZero = 0;
+        for (double probability : row) {
+            if (probability > 0) {
+                numNonZero++;
+            }
+        }
+
+        int[] nonZero = new int[numNonZero];
+        int index = 0;
+        for (int tag = 0; tag < row.length; tag++) {
+            if (row[tag] > 0) {
+                nonZero[index++] = tag;
+            }
+        }
+
+        return nonZero;
+    }
+
+    private void compilePredecessors(int numTags) {
+        int numTransitions = 0;
+        for (double probability : transitionProbability) {
+            if (probability > 0) {
+                numTransitions++;
+            }
+        }
+
+        predecessorOffset = new int[numTags + 1];
+        predecessor = new int[numTransitions];
+        predecessorLogProbability = new double[numTransitions];
+        int index = 0;
+        for (int toTag = 0; toTag < numTags; toTag++) {
+            predecessorOffset[toTag] = index;
+            for (int fromTag = 0; fromTag < numTags; fromTag++) {
+                if (transitionProbability[fromTag * numTags + toTag] > 0) {
+                    predecessor[index] = fromTag;
+                    predecessorLogProbability[index] = logTransitionProbability[fromTag * numTags + toTag];
+                    index++;
+                }
+            }
+        }
+        predecessorOffset[numTags] = index;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        ModelSnapshot.writeStrings(out, tags);
+        ModelSnapshot.writeStrings(out, words);
+        ModelSnapshot.writeDoubles(out, startProbability);
+        ModelSnapshot.writeDoubles(out, transitionProbability);
+
+        // emission rows are mostly zeros, so they are stored sparsely
+        int[] emissionOffset = new int[words.length + 1];
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            emissionOffset[wordId + 1] = emissionOffset[wordId];
+            for (double probability : emissionProbability[wordId]) {
+                if (probability > 0) {
+                    emissionOffset[wordId + 1]++;
+                }
+            }
+        }
+
+        int[] emissionTag = new int[emissionOffset[words.length]];
+        double[] emission = new double[emissionOffset[words.length]];
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            int index = emissionOffset[wordId];
+            for (int tag = 0; tag < tags.length; tag++) {
+                if (emissionProbability[wordId][tag] > 0) {
+                    emissionTag[index] = tag;
+                    emission[index] = emissionProbability[wordId][tag];
+                    index++;
+                }
+            }
+        }
+
+        ModelSnapshot.writeInts(out, emissionOffset);
+        ModelSnapshot.writeInts(out, emissionTag);
+        ModelSnapshot.writeDoubles(out, emission);
+    }
+
+    static CompiledModel read(ByteBuffer in) {
+        String[] tags = ModelSnapshot.readStrings(in);
+        String[] words = ModelSnapshot.readStrings(in);
+        double[] startProbability = ModelSnapshot.readDoubles(in);
+        double[] transitionProbability = ModelSnapshot.readDoubles(in);
+        int[] emissionOffset = ModelSnapshot.readInts(in);
+        int[] emissionTag = ModelSnapshot.readInts(in);
+        double[] emission = ModelSnapshot.readDoubles(in);
+
+        double[][] emissionProbability = new double[words.length][];
+        for (int wordId = 0; wordId < words.length; wordId++) {
+            emissionProbability[wordId] = new double[tags.length];
+            for (int index = emissionOffset[wordId]; index < emissionOffset[wordId + 1]; index++) {
+                emissionProbability[wordId][emissionTag[index]] = emission[index];
+            }
+        }
+
+        return new CompiledModel(tags, words, startProbability, transitionProbability, emissionProbability);
+    }
+
+    private static double[] log(double[] probabilities) {
+        double[] logProbabilities = new double[probabilities.length];
+        for (int i = 0; i < probabilities.length; i++) {
+            logProbabilities[i] = Math.log(probabilities[i]);
+        }
+
+        return logProbabilities;
+    }
+
+    // Arrays and index maps, without the tag and word strings themselves.
+    public long getSizeInBytes() {
+        long rowBytes = 16 + 8L * tags.length; // array header and values
+        long size = 2 * emissionProbability.length * (rowBytes + 8);
+        for (int[] wordTags : possibleTags) {
+            size += 16 + wordTags.length * 4L + 8;
+        }
+        size += (startProbability.length + logStartProbability.length) * 8L;
+        size += (transitionProbability.length + logTransitionProbability.length + transposedLogTransitionProbability.length) * 8L;
+        size += (predecessorOffset.length + predecessor.length) * 4L + predecessorLogProbability.length * 8L;
+        size += (tags.length + words.length) * 8L;
+        size += (tagIds.size() + wordIds.size()) * 48L; // map entries and their boxed ids
+
+        return size;
+    }
+
+    public Integer getNumTags() {
+        return tags.length;
+    }
+
+    public String getTag(int tagId) {
+        return tags[tagId];
+    }
+
+    public List<String> getTags() {
+        return List.of(tags);
+    }
+
+    public int getTagId(String tag) {
+        return tagIds.getOrDefault(tag, -1);
+    }
+
+    public String getWord(int wordId) {
+        return words[wordId];
+    }
+
+    public int getWordId(String word) {
+        return wordIds.getOrDefault(word, -1);
+    }
+
+    public Integer getVocabularySize() {
+        return emissionProbability.length;
+    }
+
+    public double[] getStartProbabilities() {
+        return startProbability;
+    }
+
+    public double[] getTransitionProbabilities() {
+        return transitionProbability;
+    }
+
+    public double[] getEmissionProbabilities(int wordId) {
+        return emissionProbability[wordId];
+    }
+
+    public double[] getLogStartProbabilities() {
+        return logStartProbability;
+    }
+
+    public double[] getLogTransitionProbabilities() {
+        return logTransitionProbability;
+    }
+
+    public double[] getLogEmissionProbabilities(int wordId) {
+        return logEmissionProbability[wordId];
+    }
+
+    // Ids of the tags with a non-zero emission probability for the word, in ascending order.
+    public int[] getPossibleTags(int wordId) {
+        return possibleTags[wordId];
+    }
+
+    // Number of tags rounded up to a whole number of vectors, the row length of the transposed transitions.
+    public int getPaddedNumTags() {
+        return paddedNumTags;
+    }
+
+    public double[] getTransposedLogTransitionProbabilities() {
+        return transposedLogTransitionProbability;
+    }
+
+    public int[] getPredecessorOffsets() {
+        return predecessorOffset;
+    }
+
+    public int[] getPredecessors() {
+        return predecessor;
+    }
+
+    public double[] getPredecessorLogProbabilities() {
+        return predecessorLogProbability;
+    }
+
+}
@@ -0,0 +1,173 @@
+package viterbi;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Reads the .pos (word TAB tag) and .words (one word per line) formats described in
+// WSJ_POS_CORPUS_FOR_STUDENTS/README.txt. Lines are split on bytes rather than with
+// regular expressions, and repeated tokens share one interned String.
+public class CorpusReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private InputStream in;
+    private TokenTable tokens;
+    private byte[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private long lineNumber;
+    private String word;
+    private String tag;
+
+    public CorpusReader(File file) throws FileNotFoundException {
+        this(new FileInputStream(file));
+    }
+
+    public CorpusReader(InputStream in) {
+        this(in, new TokenTable());
+    }
+
+    CorpusReader(InputStream in, TokenTable tokens) {
+        this.in = in;
+        this.tokens = tokens;
+        buffer = new byte[BUFFER_SIZE];
+    }
+
+    // Splits a comma-separated list of filenames, e.g. a set of training shards.
+    public static List<File> getFiles(String filenames) {
+        List<File> files = new ArrayList<>();
+        for (String filename : filenames.split(",")) {
+            if (!filename.isEmpty()) {
+                files.add(new File(filename));
+            }
+        }
+
+        return files;
+    }
+
+    // Advances to the next line and returns false at the end of the input.
+    public boolean nextLine() throws IOException {
+        int end = indexOf((byte) '\n', position, limit);
+        while (end < 0 && !endOfInput) {
+            fill();
+            end = indexOf((byte) '\n', position, limit);
+        }
+
+        if (end < 0) {
+            if (position == limit) {
+                return false;
+            }
+            end = limit; // last line has no line break
+        }
+
+        parseLine(position, end);
+        position = Math.min(end + 1, limit);
+        lineNumber++;
+
+        return true;
+    }
+
+    public boolean isBlankLine() {
+        return word == null;
+    }
+
+    public String getWord() {
+        return word;
+    }
+
+    // Second column of the current line, or null when the line has a single column.
+    public String getTag() {
+        return tag;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    // Returns the words of the next sentence, or null at the end of the input. Every
+    // blank line ends a sentence, so consecutive blank lines yield empty sentences.
+    public List<String> nextSentence() throws IOException {
+        return nextSentence(null);
+    }
+
+    // As nextSentence(), additionally adding each word's tag to tags when tags is not null.
+    public List<String> nextSentence(List<String> tags) throws IOException {
+        List<String> sentence = new ArrayList<>();
+        while (nextLine()) {
+            if (isBlankLine()) {
+                return sentence;
+            }
+
+            sentence.add(word);
+            if (tags != null) {
+                tags.add(tag);
+            }
+        }
+
+        return sentence.isEmpty() ? null : sentence;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void parseLine(int from, int to) {
+        if (to > from && buffer[to - 1] == '\r') {
+            to--;
+        }
+
+        word = null;
+        tag = null;
+        if (from == to) {
+            return;
+        }
+
+        int tab = indexOf((byte) '\t', from, to);
+        if (tab < 0) {
+            word = tokens.intern(buffer, from, to);
+            return;
+        }
+
+        word = tokens.intern(buffer, from, tab);
+        int tagEnd = indexOf((byte) '\t', tab + 1, to);
+        tag = tokens.intern(buffer, tab + 1, tagEnd < 0 ? to : tagEnd);
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length); // line longer than the buffer
+        }
+
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+            endOfInput = true;
+        } else {
+            limit += read;
+        }
+    }
+
+    private int indexOf(byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+}
@@ -0,0 +1,11 @@
+package viterbi;
+
+public enum DecodeMode {
+
+    PROBABILITY, // multiplies raw probabilities, underflows on long sentences
+    LOG,
+    SPARSE, // LOG, visiting only predecessors with a non-zero transition count
+    VECTOR, // LOG over transposed transitions, with SIMD when jdk.incubator.vector is available
+    BEAM // approximate: known words only take their training tags, and each column keeps the best states within the beam
+
+}
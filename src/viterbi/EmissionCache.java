@@ -0,0 +1,88 @@
+package viterbi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class EmissionCache {
+
+    private Integer capacity;
+    private Map<String, double[]> distributions;
+    private LongAdder hits;
+    private LongAdder misses;
+    private LongAdder evictions;
+
+    public EmissionCache(Integer capacity) {
+        this.capacity = capacity;
+        hits = new LongAdder();
+        misses = new LongAdder();
+        evictions = new LongAdder();
+
+        // access-ordered, so the eldest entry is the least recently used one
+        distributions = new LinkedHashMap<String, double[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, double[]> eldest) {
+                if (size() > EmissionCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+
+                return false;
+            }
+        };
+    }
+
+    public double[] get(boolean upperCase, String suffix) {
+        double[] distribution;
+        synchronized (distributions) {
+            distribution = distributions.get(getKey(upperCase, suffix));
+        }
+
+        if (distribution == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+
+        return distribution;
+    }
+
+    public void put(boolean upperCase, String suffix, double[] distribution) {
+        synchronized (distributions) {
+            distributions.put(getKey(upperCase, suffix), distribution);
+        }
+    }
+
+    public Integer getCapacity() {
+        return capacity;
+    }
+
+    public Integer size() {
+        synchronized (distributions) {
+            return distributions.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public Double getHitRate() {
+        long lookups = getHitCount() + getMissCount();
+
+        return lookups == 0 ? 0.0 : getHitCount() / (double) lookups;
+    }
+
+    private String getKey(boolean upperCase, String suffix) {
+        return (upperCase ? 'U' : 'L') + suffix;
+    }
+
+}
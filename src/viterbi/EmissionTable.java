@@ -0,0 +1,83 @@
+package viterbi;
+
+// Emissions of every unknown word, computed once from frozen suffix trees. An unknown
+// word's emissions only depend on its case and on the longest of its suffixes found in
+// the tree of that case, so one row per tree node covers every unknown word. A lookup is
+// a walk of at most maxSuffixLength characters down the tree and an array fetch, with no
+// cache, locking or logarithms at decode time.
+public class EmissionTable {
+
+    public static final String PROPERTY = "viterbi.precomputeEmissions";
+
+    private SuffixTree upperCaseTree;
+    private SuffixTree lowerCaseTree;
+    private Integer maxSuffixLength;
+    private double[][] upperCaseProbs; // indexed by node, then tag
+    private double[][] lowerCaseProbs;
+    private double[][] upperCaseLogProbs;
+    private double[][] lowerCaseLogProbs;
+
+    public EmissionTable(SuffixTree upperCaseSuffixTree, SuffixTree lowerCaseSuffixTree, Integer maxSuffixLength) {
+        if (!upperCaseSuffixTree.isFrozen() || !lowerCaseSuffixTree.isFrozen()) {
+            throw new IllegalStateException("Suffix trees must be frozen before precomputing emissions");
+        }
+
+        upperCaseTree = upperCaseSuffixTree;
+        lowerCaseTree = lowerCaseSuffixTree;
+        this.maxSuffixLength = maxSuffixLength;
+        upperCaseProbs = computeRows(upperCaseTree);
+        lowerCaseProbs = computeRows(lowerCaseTree);
+        upperCaseLogProbs = computeLogRows(upperCaseProbs);
+        lowerCaseLogProbs = computeLogRows(lowerCaseProbs);
+    }
+
+    private static double[][] computeRows(SuffixTree tree) {
+        int numTags = tree.getTags().size();
+        double[][] rows = new double[tree.getNumNodes()][];
+        for (int node = 0; node < rows.length; node++) {
+            rows[node] = new double[numTags];
+            tree.getTagDistribution(node, rows[node]);
+        }
+
+        return rows;
+    }
+
+    private static double[][] computeLogRows(double[][] rows) {
+        double[][] logRows = new double[rows.length][];
+        for (int node = 0; node < rows.length; node++) {
+            logRows[node] = new double[rows[node].length];
+            for (int tag = 0; tag < rows[node].length; tag++) {
+                logRows[node][tag] = Math.log(rows[node][tag]);
+            }
+        }
+
+        return logRows;
+    }
+
+    // The rows are shared and must not be modified.
+    public double[] getEmissionProbabilities(String word) {
+        boolean upperCase = Character.isUpperCase(word.charAt(0));
+        SuffixTree tree = upperCase ? upperCaseTree : lowerCaseTree;
+
+        return (upperCase ? upperCaseProbs : lowerCaseProbs)[tree.findSuffixNode(word, maxSuffixLength)];
+    }
+
+    public double[] getLogEmissionProbabilities(String word) {
+        boolean upperCase = Character.isUpperCase(word.charAt(0));
+        SuffixTree tree = upperCase ? upperCaseTree : lowerCaseTree;
+
+        return (upperCase ? upperCaseLogProbs : lowerCaseLogProbs)[tree.findSuffixNode(word, maxSuffixLength)];
+    }
+
+    public Integer getNumRows() {
+        return upperCaseProbs.length + lowerCaseProbs.length;
+    }
+
+    public long getSizeInBytes() {
+        long rowBytes = 16 + 8L * upperCaseTree.getTags().size(); // array header and values
+        long tableBytes = 16 + 8L * getNumRows();
+
+        return 2 * (getNumRows() * rowBytes + tableBytes);
+    }
+
+}
@@ -1,15 +1,121 @@
 package viterbi;
 
+import java.util.Arrays;
 import java.util.List;
 
+// Tags of a test set and, when they were scored against gold tags by an Evaluator, the
+// accuracy on all, known and unknown words, decoding speed and peak heap. Streamed
+// evaluations do not keep the sentences, so sentences and sentenceTags are null there.
 public class EvaluationResult {
 
     List<List<String>> sentences;
     List<List<String>> sentenceTags;
 
+    String label;
+    Integer numSentences;
+    Integer numTokens;
+    Integer numCorrect;
+    Integer numUnknownTokens;
+    Integer numUnknownCorrect;
+    long decodeNanos; // 0 when the tags were read from a file
+    long[] latencies; // nanoseconds until each sentence's tags were available
+    int numLatencies;
+    long peakHeapBytes;
+
     public EvaluationResult(List<List<String>> sentences, List<List<String>> sentenceTags) {
+        this(null);
         this.sentences = sentences;
         this.sentenceTags = sentenceTags;
     }
 
+    EvaluationResult(String label) {
+        this.label = label;
+        numSentences = 0;
+        numTokens = 0;
+        numCorrect = 0;
+        numUnknownTokens = 0;
+        numUnknownCorrect = 0;
+        latencies = new long[0];
+    }
+
+    void addLatency(long nanos) {
+        if (numLatencies == latencies.length) {
+            latencies = Arrays.copyOf(latencies, Math.max(1024, 2 * numLatencies));
+        }
+        latencies[numLatencies++] = nanos;
+    }
+
+    void addToken(boolean known, boolean correct) {
+        numTokens++;
+        numCorrect += correct ? 1 : 0;
+        if (!known) {
+            numUnknownTokens++;
+            numUnknownCorrect += correct ? 1 : 0;
+        }
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Integer getNumSentences() {
+        return numSentences;
+    }
+
+    public Integer getNumTokens() {
+        return numTokens;
+    }
+
+    public Double getAccuracy() {
+        return getAccuracy(numCorrect, numTokens);
+    }
+
+    public Double getKnownAccuracy() {
+        return getAccuracy(numCorrect - numUnknownCorrect, numTokens - numUnknownTokens);
+    }
+
+    public Double getUnknownAccuracy() {
+        return getAccuracy(numUnknownCorrect, numUnknownTokens);
+    }
+
+    private static Double getAccuracy(Integer correct, Integer tokens) {
+        return tokens == 0 ? 0.0 : correct / (double) tokens;
+    }
+
+    public Integer getNumUnknownTokens() {
+        return numUnknownTokens;
+    }
+
+    public Double getTokensPerSecond() {
+        return decodeNanos == 0 ? 0.0 : numTokens / (decodeNanos / 1e9);
+    }
+
+    // The latency below which the given fraction of sentences were tagged, 0 when nothing was timed.
+    public long getLatencyPercentile(double fraction) {
+        if (numLatencies == 0) {
+            return 0;
+        }
+
+        long[] sorted = Arrays.copyOf(latencies, numLatencies);
+        Arrays.sort(sorted);
+        return sorted[Math.min((int) (numLatencies * fraction), numLatencies - 1)];
+    }
+
+    public long getPeakHeapBytes() {
+        return peakHeapBytes;
+    }
+
+    @Override
+    public String toString() {
+        String summary = String.format("%s: %d sentences, %d tokens, %.3f%% accurate, %.3f%% on %d known and %.3f%% on %d unknown words",
+                label, numSentences, numTokens, 100 * getAccuracy(), 100 * getKnownAccuracy(), numTokens - numUnknownTokens,
+                100 * getUnknownAccuracy(), numUnknownTokens);
+        if (decodeNanos == 0) {
+            return summary;
+        }
+
+        return summary + String.format(", %.0f tokens/s, sentence latency p50 %.1f us p99 %.1f us, peak heap %d MB",
+                getTokensPerSecond(), getLatencyPercentile(0.5) / 1e3, getLatencyPercentile(0.99) / 1e3, peakHeapBytes >> 20);
+    }
+
 }
@@ -0,0 +1,338 @@
+package viterbi;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+// Scores decoder configurations against a gold .pos file. Each configuration streams the
+// gold file a batch of sentences at a time, tags it, writes the tags to a .pos file and
+// counts correct tags on all, known and unknown words, so the test set is never held in
+// memory and the readers' token tables are bounded. Two configurations are then diffed
+// by streaming the gold file and both outputs side by side.
+//
+// A configuration is a DecodeMode (BEAM:WIDTH also sets the beam width), BATCH for
+// Viterbi.runBatch or POSTERIOR for ForwardBackward, optionally followed by +TABLE to
+// decode unknown words through a precomputed EmissionTable. The name of an existing .pos
+// file is scored as it is, without timing.
+public class Evaluator {
+
+    private static final Integer WARMUP_SENTENCES = 2000;
+    private static final Integer BATCH_SIZE = 256;
+    private static final Integer MAX_DIFF_EXAMPLES = 10;
+
+    private Viterbi viterbi;
+    private Integer beamWidth;
+    private EmissionTable emissionTable;
+
+    public Evaluator(Viterbi viterbi) {
+        this.viterbi = viterbi;
+        beamWidth = viterbi.getBeamWidth();
+        emissionTable = viterbi.getEmissionTable();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5 && args.length != 6) {
+            String errMsg = "Expected [TRAINING_FILENAME] [GOLD_POS_FILENAME] [MAX_SUFFIX_LENGTH] [MAX_WORD_FREQUENCY] [CONFIG] [CONFIG (optional)], got " + args.length + " args.";
+            System.err.println(errMsg);
+            System.exit(99);
+        }
+
+        Integer maxSuffixLength = Integer.parseInt(args[2]);
+        Integer maxWordFrequency = Integer.parseInt(args[3]);
+        File gold = new File(args[1]);
+        Viterbi viterbi;
+        try {
+            viterbi = WSJPOSTagger.loadViterbi(args[0], maxSuffixLength, maxWordFrequency, Runtime.getRuntime().availableProcessors(), null, System.out);
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+            return;
+        }
+        Evaluator evaluator = new Evaluator(viterbi);
+
+        List<File> outputs = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            File predicted = new File(args[i]);
+            EvaluationResult result;
+            if (predicted.isFile()) {
+                result = evaluator.score(gold, predicted);
+            } else {
+                predicted = new File(getOutputFilename(gold, args[i]));
+                try {
+                    result = evaluator.evaluate(gold, args[i], predicted);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(99);
+                    return;
+                }
+            }
+            System.out.println(result);
+            outputs.add(predicted);
+        }
+
+        if (outputs.size() == 2) {
+            evaluator.diff(gold, outputs.get(0), outputs.get(1), System.out);
+        }
+    }
+
+    // WSJ_24.pos and BEAM:2+TABLE give WSJ_24.BEAM_2_TABLE.pos in the working directory.
+    private static String getOutputFilename(File gold, String config) {
+        String name = gold.getName();
+        if (name.lastIndexOf('.') > 0) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+
+        return name + "." + config.replaceAll("[^A-Za-z0-9]+", "_") + ".pos";
+    }
+
+    // Tags gold with the configuration, writes the tags to output and scores them. Each
+    // configuration starts from an empty emission cache and is warmed up on the first
+    // sentences of gold before it is timed.
+    public EvaluationResult evaluate(File gold, String config, File output) throws IOException {
+        Function<List<List<String>>, List<List<String>>> tagger = configure(config);
+        Integer batchSize = config.startsWith("BATCH") ? BATCH_SIZE : 1;
+        viterbi.setEmissionCache(new EmissionCache(viterbi.getEmissionCache().getCapacity()));
+
+        // small gold files are tagged more than once until the warm-up is done
+        List<List<String>> goldTags = new ArrayList<>();
+        List<List<String>> sentences;
+        Integer numWarmupSentences = 0;
+        while (numWarmupSentences < WARMUP_SENTENCES) {
+            Integer numSentences = numWarmupSentences;
+            try (CorpusReader reader = new CorpusReader(gold)) {
+                while (numWarmupSentences < WARMUP_SENTENCES && !(sentences = nextBatch(reader, goldTags, batchSize, gold)).isEmpty()) {
+                    tagger.apply(sentences);
+                    numWarmupSentences += sentences.size();
+                }
+            }
+            if (numWarmupSentences.equals(numSentences)) {
+                break;
+            }
+        }
+
+        EvaluationResult result = new EvaluationResult(config);
+        System.gc();
+        resetPeakHeap();
+        try (CorpusReader reader = new CorpusReader(gold); Writer writer = new BufferedWriter(new FileWriter(output))) {
+            while (!(sentences = nextBatch(reader, goldTags, batchSize, gold)).isEmpty()) {
+                long start = System.nanoTime();
+                List<List<String>> sentenceTags = tagger.apply(sentences);
+                long elapsed = System.nanoTime() - start;
+
+                // a batched sentence is only tagged once its whole batch is
+                result.decodeNanos += elapsed;
+                for (int i = 0; i < sentences.size(); i++) {
+                    result.addLatency(elapsed);
+                    score(result, sentences.get(i), goldTags.get(i), sentenceTags.get(i));
+                    write(writer, sentences.get(i), sentenceTags.get(i));
+                }
+            }
+            result.peakHeapBytes = getPeakHeap();
+        }
+
+        return result;
+    }
+
+    // Scores a tagged .pos file, e.g. the output of WSJPOSTagger, against gold.
+    public EvaluationResult score(File gold, File predicted) throws IOException {
+        EvaluationResult result = new EvaluationResult(predicted.getName());
+        List<String> goldTags = new ArrayList<>();
+        List<String> predictedTags = new ArrayList<>();
+
+        try (CorpusReader goldReader = new CorpusReader(gold); CorpusReader predictedReader = new CorpusReader(predicted)) {
+            List<String> sentence;
+            while ((sentence = nextSentence(goldReader, goldTags, gold)) != null) {
+                checkAligned(sentence, nextSentence(predictedReader, predictedTags, predicted), predicted, predictedReader);
+                score(result, sentence, goldTags, predictedTags);
+            }
+            checkEnd(predictedReader, predictedTags, predicted);
+        }
+
+        return result;
+    }
+
+    // Compares the tags of two .pos files of the same sentences: how many sentences and
+    // tokens they tag differently, how many tokens only one of them gets right, and the
+    // first few differences.
+    public void diff(File gold, File first, File second, PrintStream out) throws IOException {
+        List<String> goldTags = new ArrayList<>();
+        List<String> firstTags = new ArrayList<>();
+        List<String> secondTags = new ArrayList<>();
+        List<String> examples = new ArrayList<>();
+        Integer numSentences = 0;
+        Integer numTokens = 0;
+        Integer differentSentences = 0;
+        Integer differentTokens = 0;
+        Integer onlyFirstCorrect = 0;
+        Integer onlySecondCorrect = 0;
+
+        try (CorpusReader goldReader = new CorpusReader(gold); CorpusReader firstReader = new CorpusReader(first);
+                CorpusReader secondReader = new CorpusReader(second)) {
+            List<String> sentence;
+            while ((sentence = nextSentence(goldReader, goldTags, gold)) != null) {
+                checkAligned(sentence, nextSentence(firstReader, firstTags, first), first, firstReader);
+                checkAligned(sentence, nextSentence(secondReader, secondTags, second), second, secondReader);
+                numSentences++;
+                numTokens += sentence.size();
+                differentSentences += firstTags.equals(secondTags) ? 0 : 1;
+
+                for (int i = 0; i < sentence.size(); i++) {
+                    if (firstTags.get(i).equals(secondTags.get(i))) {
+                        continue;
+                    }
+                    differentTokens++;
+                    onlyFirstCorrect += firstTags.get(i).equals(goldTags.get(i)) ? 1 : 0;
+                    onlySecondCorrect += secondTags.get(i).equals(goldTags.get(i)) ? 1 : 0;
+                    if (examples.size() < MAX_DIFF_EXAMPLES) {
+                        examples.add(String.format("  sentence %d, %s: gold %s, %s in %s, %s in %s", numSentences, sentence.get(i),
+                                goldTags.get(i), firstTags.get(i), first.getName(), secondTags.get(i), second.getName()));
+                    }
+                }
+            }
+            checkEnd(firstReader, firstTags, first);
+            checkEnd(secondReader, secondTags, second);
+        }
+
+        out.printf("%s vs %s: %d of %d sentences and %d of %d tokens tagged differently, %d only right in %s, %d only right in %s%n",
+                first.getName(), second.getName(), differentSentences, numSentences, differentTokens, numTokens,
+                onlyFirstCorrect, first.getName(), onlySecondCorrect, second.getName());
+        for (String example : examples) {
+            out.println(example);
+        }
+    }
+
+    private Function<List<List<String>>, List<List<String>>> configure(String config) {
+        String[] parts = config.split("\\+");
+        Boolean precomputed = false;
+        for (int i = 1; i < parts.length; i++) {
+            if (!parts[i].equals("TABLE")) {
+                throw new IllegalArgumentException("Unknown option " + parts[i] + " in configuration " + config);
+            }
+            precomputed = true;
+        }
+        if (precomputed && emissionTable == null) {
+            emissionTable = new EmissionTable(viterbi.upperCaseTree, viterbi.lowerCaseTree, viterbi.MAX_SUFFIX_LENGTH);
+        }
+        viterbi.setEmissionTable(precomputed ? emissionTable : null);
+        viterbi.setBeamWidth(beamWidth);
+        viterbi.setDecodeMode(DecodeMode.LOG);
+
+        String[] decoder = parts[0].split(":");
+        if (decoder[0].equals("BATCH")) {
+            return viterbi::runBatch;
+        }
+        if (decoder[0].equals("POSTERIOR")) {
+            return perSentence(new ForwardBackward(viterbi)::run);
+        }
+
+        try {
+            viterbi.setDecodeMode(DecodeMode.valueOf(decoder[0]));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown decoder " + decoder[0] + " in configuration " + config);
+        }
+        if (decoder.length > 1) {
+            viterbi.setBeamWidth(Integer.parseInt(decoder[1]));
+        }
+
+        return perSentence(viterbi::run);
+    }
+
+    private static Function<List<List<String>>, List<List<String>>> perSentence(Function<List<String>, List<String>> tagger) {
+        return sentences -> {
+            List<List<String>> sentenceTags = new ArrayList<>(sentences.size());
+            for (List<String> sentence : sentences) {
+                sentenceTags.add(tagger.apply(sentence));
+            }
+
+            return sentenceTags;
+        };
+    }
+
+    private void score(EvaluationResult result, List<String> sentence, List<String> goldTags, List<String> predictedTags) {
+        result.numSentences++;
+        for (int i = 0; i < sentence.size(); i++) {
+            result.addToken(viterbi.model.getWordId(sentence.get(i)) >= 0, predictedTags.get(i).equals(goldTags.get(i)));
+        }
+    }
+
+    // Up to batchSize sentences, with their gold tags in goldTags; empty at the end of the input.
+    private static List<List<String>> nextBatch(CorpusReader reader, List<List<String>> goldTags, Integer batchSize, File gold) throws IOException {
+        List<List<String>> sentences = new ArrayList<>();
+        goldTags.clear();
+        List<String> tags = new ArrayList<>();
+        List<String> sentence;
+        while (sentences.size() < batchSize && (sentence = nextSentence(reader, tags, gold)) != null) {
+            sentences.add(sentence);
+            goldTags.add(tags);
+            tags = new ArrayList<>();
+        }
+
+        return sentences;
+    }
+
+    // The next non-empty sentence, with its tags in tags, or null at the end of the input.
+    // Every word must be tagged.
+    private static List<String> nextSentence(CorpusReader reader, List<String> tags, File file) throws IOException {
+        List<String> sentence;
+        do {
+            tags.clear();
+            sentence = reader.nextSentence(tags);
+        } while (sentence != null && sentence.isEmpty());
+
+        if (sentence != null && tags.contains(null)) {
+            throw new IOException(file + " has an untagged word before line " + reader.getLineNumber());
+        }
+
+        return sentence;
+    }
+
+    private static void checkAligned(List<String> expected, List<String> actual, File file, CorpusReader reader) throws IOException {
+        if (!expected.equals(actual)) {
+            throw new IOException(file + " does not have the sentences of the gold file, first difference before line " + reader.getLineNumber());
+        }
+    }
+
+    // A tagged file must end with the gold file, not have more sentences after it.
+    private static void checkEnd(CorpusReader reader, List<String> tags, File file) throws IOException {
+        if (nextSentence(reader, tags, file) != null) {
+            throw new IOException(file + " has more sentences than the gold file, first extra sentence before line " + reader.getLineNumber());
+        }
+    }
+
+    private static void write(Writer writer, List<String> sentence, List<String> sentenceTags) throws IOException {
+        for (int i = 0; i < sentence.size(); i++) {
+            writer.write(sentence.get(i) + "\t" + sentenceTags.get(i) + "\n");
+        }
+        writer.write("\n");
+    }
+
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // Sum of the peaks of the heap pools since the last reset, an upper bound on the peak of the whole heap.
+    private static long getPeakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+
+        return peak;
+    }
+
+}
@@ -0,0 +1,227 @@
+package viterbi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Per-token tag marginals P(tag_t = s | sentence) of the bigram model, from the forward and
+// backward passes over the compiled model and emissions of a Viterbi. Both passes keep
+// log probabilities, but sum each column in probability space after shifting it by its
+// maximum, which needs one exp per state and column instead of one per transition.
+public class ForwardBackward {
+
+    private Viterbi viterbi;
+    private CompiledModel model;
+    private int numTags;
+    private ThreadLocal<Lattice> lattices;
+
+    public ForwardBackward(Viterbi viterbi) {
+        this.viterbi = viterbi;
+        model = viterbi.model;
+        numTags = viterbi.numTags;
+        lattices = ThreadLocal.withInitial(() -> new Lattice(numTags));
+    }
+
+    // posteriors[t][s] is the probability that word t has tag s. When no tag sequence has
+    // a non-zero probability every marginal is 0.
+    public double[][] getPosteriors(List<String> sentence) {
+        int sentenceLength = sentence.size();
+        double[][] posteriors = new double[sentenceLength][numTags];
+        if (sentenceLength == 0) {
+            return posteriors;
+        }
+
+        Lattice lattice = lattices.get();
+        double logProbability = computeLattice(sentence, lattice);
+        if (logProbability == Double.NEGATIVE_INFINITY) {
+            return posteriors;
+        }
+
+        for (int timeStep = 0; timeStep < sentenceLength; timeStep++) {
+            int offset = timeStep * numTags;
+            for (int state = 0; state < numTags; state++) {
+                posteriors[timeStep][state] = Math.exp(lattice.alpha[offset + state] + lattice.beta[offset + state] - logProbability);
+            }
+        }
+
+        return posteriors;
+    }
+
+    // Posterior decoding: the most probable tag of each word on its own. This maximizes the
+    // expected number of correct tags rather than the probability of the whole sequence.
+    // Sentences without any tag sequence of non-zero probability get the Viterbi tags.
+    public List<String> run(List<String> sentence) {
+        int sentenceLength = sentence.size();
+        List<String> wordTags = new ArrayList<>(sentenceLength);
+        if (sentenceLength == 0) {
+            return wordTags;
+        }
+
+        Lattice lattice = lattices.get();
+        if (computeLattice(sentence, lattice) == Double.NEGATIVE_INFINITY) {
+            return viterbi.run(sentence);
+        }
+        for (int timeStep = 0; timeStep < sentenceLength; timeStep++) {
+            int offset = timeStep * numTags;
+            int bestState = 0;
+            for (int state = 1; state < numTags; state++) {
+                if (lattice.alpha[offset + state] + lattice.beta[offset + state] > lattice.alpha[offset + bestState] + lattice.beta[offset + bestState]) {
+                    bestState = state;
+                }
+            }
+            wordTags.add(viterbi.tags.get(bestState));
+        }
+
+        return wordTags;
+    }
+
+    // Fills alpha and beta and returns the log probability of the sentence.
+    private double computeLattice(List<String> sentence, Lattice lattice) {
+        int sentenceLength = sentence.size();
+        lattice.ensureCapacity(numTags, sentenceLength);
+        double[] emission = lattice.emission;
+        double[] alpha = lattice.alpha;
+        double[] beta = lattice.beta;
+
+        Trellis trellis = viterbi.trellises.get();
+        for (int timeStep = 0; timeStep < sentenceLength; timeStep++) {
+            double[] emissionProbs = viterbi.getLogEmissionProbabilities(sentence.get(timeStep), trellis);
+            System.arraycopy(emissionProbs, 0, emission, timeStep * numTags, numTags);
+        }
+
+        double[] startProbs = model.getLogStartProbabilities();
+        for (int state = 0; state < numTags; state++) {
+            alpha[state] = startProbs[state] + emission[state];
+        }
+        for (int timeStep = 1; timeStep < sentenceLength; timeStep++) {
+            int offset = timeStep * numTags;
+            forward(alpha, offset - numTags, lattice.scaled, lattice.sums);
+            for (int state = 0; state < numTags; state++) {
+                alpha[offset + state] += emission[offset + state];
+            }
+        }
+
+        int last = (sentenceLength - 1) * numTags;
+        Arrays.fill(beta, last, last + numTags, 0.0);
+        for (int timeStep = sentenceLength - 2; timeStep >= 0; timeStep--) {
+            int offset = timeStep * numTags;
+            int nextOffset = offset + numTags;
+            for (int state = 0; state < numTags; state++) {
+                lattice.column[state] = emission[nextOffset + state] + beta[nextOffset + state];
+            }
+            backward(lattice.column, beta, offset, lattice.scaled);
+        }
+
+        return logSumExp(alpha, last);
+    }
+
+    // alpha[next][s] = log sum_p exp(alpha[t][p]) P(s | p), without the emission of s.
+    private void forward(double[] alpha, int offset, double[] scaled, double[] sums) {
+        double[] transitionProbs = model.getTransitionProbabilities();
+        int nextOffset = offset + numTags;
+        double max = scale(alpha, offset, scaled);
+        if (max == Double.NEGATIVE_INFINITY) {
+            Arrays.fill(alpha, nextOffset, nextOffset + numTags, Double.NEGATIVE_INFINITY);
+            return;
+        }
+
+        Arrays.fill(sums, 0.0);
+        for (int prevState = 0; prevState < numTags; prevState++) {
+            double prevProb = scaled[prevState];
+            if (prevProb == 0) {
+                continue;
+            }
+            int row = prevState * numTags;
+            for (int state = 0; state < numTags; state++) {
+                sums[state] += prevProb * transitionProbs[row + state];
+            }
+        }
+        for (int state = 0; state < numTags; state++) {
+            alpha[nextOffset + state] = max + Math.log(sums[state]);
+        }
+    }
+
+    // beta[t][p] = log sum_s P(s | p) exp(next[s]), where next[s] already includes the
+    // emission and backward probability of s at t + 1.
+    private void backward(double[] next, double[] beta, int offset, double[] scaled) {
+        double[] transitionProbs = model.getTransitionProbabilities();
+        double max = scale(next, 0, scaled);
+        if (max == Double.NEGATIVE_INFINITY) {
+            Arrays.fill(beta, offset, offset + numTags, Double.NEGATIVE_INFINITY);
+            return;
+        }
+
+        for (int prevState = 0; prevState < numTags; prevState++) {
+            int row = prevState * numTags;
+            double sum = 0.0;
+            for (int state = 0; state < numTags; state++) {
+                sum += transitionProbs[row + state] * scaled[state];
+            }
+            beta[offset + prevState] = max + Math.log(sum);
+        }
+    }
+
+    // Writes exp(column[s] - max) into scaled and returns the max of the column.
+    private double scale(double[] column, int offset, double[] scaled) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int state = 0; state < numTags; state++) {
+            max = Math.max(max, column[offset + state]);
+        }
+        if (max != Double.NEGATIVE_INFINITY) {
+            for (int state = 0; state < numTags; state++) {
+                scaled[state] = Math.exp(column[offset + state] - max);
+            }
+        }
+
+        return max;
+    }
+
+    private double logSumExp(double[] column, int offset) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int state = 0; state < numTags; state++) {
+            max = Math.max(max, column[offset + state]);
+        }
+        if (max == Double.NEGATIVE_INFINITY) {
+            return max;
+        }
+
+        double sum = 0.0;
+        for (int state = 0; state < numTags; state++) {
+            sum += Math.exp(column[offset + state] - max);
+        }
+
+        return max + Math.log(sum);
+    }
+
+    // Forward and backward log probabilities and the log emissions of one sentence, indexed
+    // by timeStep * numTags + state. Reused by each thread across sentences.
+    private static class Lattice {
+
+        double[] alpha;
+        double[] beta;
+        double[] emission;
+        double[] column;
+        double[] scaled;
+        double[] sums;
+
+        Lattice(int numTags) {
+            alpha = new double[0];
+            beta = new double[0];
+            emission = new double[0];
+            column = new double[numTags];
+            scaled = new double[numTags];
+            sums = new double[numTags];
+        }
+
+        void ensureCapacity(int numTags, int sentenceLength) {
+            if (alpha.length < numTags * sentenceLength) {
+                int capacity = numTags * Math.max(sentenceLength, 2 * alpha.length / numTags);
+                alpha = new double[capacity];
+                beta = new double[capacity];
+                emission = new double[capacity];
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package viterbi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// On-heap counts: a word index and, per word, its tags and counts packed into one int array
+// as tag, count, tag, count, ... Most words are seen with one or two tags, so this is far
+// smaller than a map per word.
+public class HeapWordTagCounts implements WordTagCounts {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+
+    private Map<String, Integer> wordIds;
+    private List<String> words;
+    private int[] wordCounts;
+    private int[][] tagCounts;
+    private int[] numTags;
+
+    public HeapWordTagCounts() {
+        wordIds = new HashMap<>();
+        words = new ArrayList<>();
+        wordCounts = new int[INITIAL_CAPACITY];
+        tagCounts = new int[INITIAL_CAPACITY][];
+        numTags = new int[INITIAL_CAPACITY];
+    }
+
+    @Override
+    public WordTagCounts createEmpty() {
+        return new HeapWordTagCounts();
+    }
+
+    @Override
+    public int getWordId(String word) {
+        return wordIds.getOrDefault(word, -1);
+    }
+
+    @Override
+    public int addWord(String word) {
+        Integer wordId = wordIds.get(word);
+        if (wordId != null) {
+            return wordId;
+        }
+
+        wordId = words.size();
+        if (wordId == wordCounts.length) {
+            wordCounts = Arrays.copyOf(wordCounts, 2 * wordId);
+            tagCounts = Arrays.copyOf(tagCounts, 2 * wordId);
+            numTags = Arrays.copyOf(numTags, 2 * wordId);
+        }
+        wordIds.put(word, wordId);
+        words.add(word);
+        tagCounts[wordId] = new int[2];
+
+        return wordId;
+    }
+
+    @Override
+    public String getWord(int wordId) {
+        return words.get(wordId);
+    }
+
+    @Override
+    public int getNumWords() {
+        return words.size();
+    }
+
+    @Override
+    public int getWordCount(int wordId) {
+        return wordCounts[wordId];
+    }
+
+    @Override
+    public void addWordCount(int wordId, int count) {
+        wordCounts[wordId] += count;
+    }
+
+    @Override
+    public int getWordTagCount(int wordId, int tagId) {
+        int[] row = tagCounts[wordId];
+        for (int i = 0; i < numTags[wordId]; i++) {
+            if (row[2 * i] == tagId) {
+                return row[2 * i + 1];
+            }
+        }
+
+        return 0;
+    }
+
+    @Override
+    public void addWordTagCount(int wordId, int tagId, int count) {
+        int[] row = tagCounts[wordId];
+        int size = numTags[wordId];
+        for (int i = 0; i < size; i++) {
+            if (row[2 * i] == tagId) {
+                row[2 * i + 1] += count;
+                return;
+            }
+        }
+
+        if (2 * size == row.length) {
+            row = Arrays.copyOf(row, 2 * row.length);
+            tagCounts[wordId] = row;
+        }
+        row[2 * size] = tagId;
+        row[2 * size + 1] = count;
+        numTags[wordId] = size + 1;
+    }
+
+    @Override
+    public int getTagCounts(int wordId, int[] tagIds, int[] counts) {
+        int[] row = tagCounts[wordId];
+        int size = numTags[wordId];
+        for (int i = 0; i < size; i++) {
+            tagIds[i] = row[2 * i];
+            counts[i] = row[2 * i + 1];
+        }
+
+        return size;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = (wordCounts.length + numTags.length) * 4L + tagCounts.length * 8L;
+        for (int wordId = 0; wordId < words.size(); wordId++) {
+            size += 16 + tagCounts[wordId].length * 4L;
+            size += 48 + 2L * words.get(wordId).length(); // the String and its map entry
+        }
+
+        return size;
+    }
+
+}
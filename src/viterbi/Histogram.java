@@ -0,0 +1,69 @@
+package viterbi;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Log-scale histogram of non-negative values: bucket i counts values below 2^i that do
+// not fit in bucket i - 1. Recording is two LongAdder increments, so every decoder
+// thread can record without contention; percentiles are reported as bucket upper bounds.
+public class Histogram {
+
+    private static final Integer NUM_BUCKETS = 64;
+
+    private LongAdder[] buckets;
+    private LongAdder count;
+    private LongAdder sum;
+
+    public Histogram() {
+        buckets = new LongAdder[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+        count = new LongAdder();
+        sum = new LongAdder();
+    }
+
+    public void record(long value) {
+        value = Math.max(0, value);
+        buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+        count.increment();
+        sum.add(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long numValues = count.sum();
+        return numValues == 0 ? 0.0 : sum.sum() / (double) numValues;
+    }
+
+    // Upper bound of the bucket holding the given fraction of values, 0 when empty.
+    public long getPercentile(double fraction) {
+        long[] counts = new long[NUM_BUCKETS];
+        long numValues = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            numValues += counts[i];
+        }
+        if (numValues == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(fraction * numValues);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return (1L << i) - 1;
+            }
+        }
+
+        return Long.MAX_VALUE;
+    }
+
+}
@@ -0,0 +1,224 @@
+package viterbi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// The k most probable tag sequences of the bigram model (list Viterbi). Every state keeps
+// its k best partial paths, best first, each pointing at a (state, rank) of the previous
+// column. Ties keep the earlier state, as Viterbi does, so the first path is the one
+// Viterbi returns in the log-space modes.
+public class KBestViterbi {
+
+    private Viterbi viterbi;
+    private CompiledModel model;
+    private int numTags;
+    private ThreadLocal<Lattice> lattices;
+
+    public KBestViterbi(Viterbi viterbi) {
+        this.viterbi = viterbi;
+        model = viterbi.model;
+        numTags = viterbi.numTags;
+        lattices = ThreadLocal.withInitial(Lattice::new);
+    }
+
+    // Up to k tag sequences, most probable first. Only sequences with a non-zero
+    // probability are returned, unless there is none, in which case the single sequence
+    // Viterbi falls back to is.
+    public List<Path> run(List<String> sentence, Integer k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1, got " + k);
+        }
+        int sentenceLength = sentence.size();
+        List<Path> paths = new ArrayList<>();
+        if (sentenceLength == 0) {
+            paths.add(new Path(new ArrayList<>(), 0.0));
+            return paths;
+        }
+
+        Lattice lattice = lattices.get();
+        lattice.ensureCapacity(numTags * k, sentenceLength);
+        Trellis trellis = viterbi.trellises.get();
+        int columnSize = numTags * k;
+
+        double[] startProbs = model.getLogStartProbabilities();
+        double[] emissionProbs = viterbi.getLogEmissionProbabilities(sentence.get(0), trellis);
+        clearColumn(lattice, 0, columnSize);
+        for (int state = 0; state < numTags; state++) {
+            lattice.score[state * k] = startProbs[state] + emissionProbs[state];
+        }
+
+        for (int timeStep = 1; timeStep < sentenceLength; timeStep++) {
+            emissionProbs = viterbi.getLogEmissionProbabilities(sentence.get(timeStep), trellis);
+            extend(lattice, (timeStep - 1) * columnSize, timeStep * columnSize, k, emissionProbs);
+        }
+
+        int last = (sentenceLength - 1) * columnSize;
+        int numFinal = selectFinal(lattice, last, k);
+        if (numFinal == 0) {
+            lattice.finalState[0] = 0;
+            lattice.finalRank[0] = 0;
+            numFinal = 1;
+        }
+
+        for (int i = 0; i < numFinal; i++) {
+            paths.add(backtrack(lattice, sentenceLength, k, lattice.finalState[i], lattice.finalRank[i]));
+        }
+
+        return paths;
+    }
+
+    private void clearColumn(Lattice lattice, int offset, int columnSize) {
+        Arrays.fill(lattice.score, offset, offset + columnSize, Double.NEGATIVE_INFINITY);
+        Arrays.fill(lattice.backState, offset, offset + columnSize, 0);
+        Arrays.fill(lattice.backRank, offset, offset + columnSize, 0);
+    }
+
+    // Merges the ranked lists of all previous states into the k best entries of each state.
+    // A previous state's list is sorted, so it is only read until it can no longer beat the
+    // k-th entry.
+    private void extend(Lattice lattice, int prevOffset, int offset, int k, double[] emissionProbs) {
+        double[] transitionProbs = model.getLogTransitionProbabilities();
+        double[] score = lattice.score;
+        int[] backState = lattice.backState;
+        int[] backRank = lattice.backRank;
+        clearColumn(lattice, offset, numTags * k);
+
+        for (int state = 0; state < numTags; state++) {
+            int entries = offset + state * k;
+            double worst = Double.NEGATIVE_INFINITY;
+            for (int prevState = 0; prevState < numTags; prevState++) {
+                double transitionProb = transitionProbs[prevState * numTags + state];
+                if (transitionProb == Double.NEGATIVE_INFINITY) {
+                    continue;
+                }
+                int prevEntries = prevOffset + prevState * k;
+                for (int rank = 0; rank < k; rank++) {
+                    double prob = transitionProb + score[prevEntries + rank];
+                    if (!(prob > worst)) {
+                        break;
+                    }
+
+                    int position = k - 1;
+                    while (position > 0 && score[entries + position - 1] < prob) {
+                        score[entries + position] = score[entries + position - 1];
+                        backState[entries + position] = backState[entries + position - 1];
+                        backRank[entries + position] = backRank[entries + position - 1];
+                        position--;
+                    }
+                    score[entries + position] = prob;
+                    backState[entries + position] = prevState;
+                    backRank[entries + position] = rank;
+                    worst = score[entries + k - 1];
+                }
+            }
+
+            for (int rank = 0; rank < k; rank++) {
+                score[entries + rank] += emissionProbs[state];
+            }
+        }
+    }
+
+    // The k best (state, rank) entries of the last column with a non-zero probability.
+    private int selectFinal(Lattice lattice, int offset, int k) {
+        double[] score = lattice.score;
+        double[] finalScore = lattice.finalScore;
+        int numFinal = 0;
+
+        for (int state = 0; state < numTags; state++) {
+            for (int rank = 0; rank < k; rank++) {
+                double prob = score[offset + state * k + rank];
+                if (prob == Double.NEGATIVE_INFINITY || (numFinal == k && !(prob > finalScore[k - 1]))) {
+                    break;
+                }
+
+                int position = Math.min(numFinal, k - 1);
+                while (position > 0 && finalScore[position - 1] < prob) {
+                    finalScore[position] = finalScore[position - 1];
+                    lattice.finalState[position] = lattice.finalState[position - 1];
+                    lattice.finalRank[position] = lattice.finalRank[position - 1];
+                    position--;
+                }
+                finalScore[position] = prob;
+                lattice.finalState[position] = state;
+                lattice.finalRank[position] = rank;
+                numFinal = Math.min(numFinal + 1, k);
+            }
+        }
+
+        return numFinal;
+    }
+
+    private Path backtrack(Lattice lattice, int sentenceLength, int k, int state, int rank) {
+        int columnSize = numTags * k;
+        double logProbability = lattice.score[(sentenceLength - 1) * columnSize + state * k + rank];
+
+        String[] wordTags = new String[sentenceLength];
+        for (int timeStep = sentenceLength - 1; timeStep >= 0; timeStep--) {
+            wordTags[timeStep] = viterbi.tags.get(state);
+            int entry = timeStep * columnSize + state * k + rank;
+            state = lattice.backState[entry];
+            rank = lattice.backRank[entry];
+        }
+
+        return new Path(new ArrayList<>(Arrays.asList(wordTags)), logProbability);
+    }
+
+    public static class Path {
+
+        private List<String> tags;
+        private double logProbability;
+
+        Path(List<String> tags, double logProbability) {
+            this.tags = tags;
+            this.logProbability = logProbability;
+        }
+
+        public List<String> getTags() {
+            return tags;
+        }
+
+        // Joint log probability of the sentence and this tag sequence.
+        public double getLogProbability() {
+            return logProbability;
+        }
+
+    }
+
+    // Ranked entries of every (state, rank), indexed by (timeStep * numTags + state) * k + rank.
+    // Reused by each thread across sentences.
+    private static class Lattice {
+
+        double[] score;
+        int[] backState;
+        int[] backRank;
+        double[] finalScore;
+        int[] finalState;
+        int[] finalRank;
+
+        Lattice() {
+            score = new double[0];
+            backState = new int[0];
+            backRank = new int[0];
+            finalScore = new double[0];
+            finalState = new int[0];
+            finalRank = new int[0];
+        }
+
+        void ensureCapacity(int columnSize, int sentenceLength) {
+            if (score.length < columnSize * sentenceLength) {
+                int capacity = Math.max(columnSize * sentenceLength, 2 * score.length);
+                score = new double[capacity];
+                backState = new int[capacity];
+                backRank = new int[capacity];
+            }
+            if (finalScore.length < columnSize) {
+                finalScore = new double[columnSize];
+                finalState = new int[columnSize];
+                finalRank = new int[columnSize];
+            }
+        }
+
+    }
+
+}
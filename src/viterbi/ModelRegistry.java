@@ -0,0 +1,352 @@
+package viterbi;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// Several named models in one process. A model is loaded from its snapshot or training
+// files the first time it is acquired, and decodes hold a Lease on the version they
+// started with, so reload() can publish a new version while they finish on the old one.
+//
+// Loaded models share what they have in common: models with identical compiled bigram
+// models (e.g. one corpus with different suffix settings) share one CompiledModel, and
+// all models share a single copy of each tag and word string. When the distinct
+// components of all versions still in use exceed the memory budget, the least recently
+// used models without leases are evicted and loaded again on their next use.
+public class ModelRegistry {
+
+    private Long memoryBudgetBytes;
+    private Integer numThreads;
+    private TaggerMetrics metrics;
+    private PrintStream log;
+
+    private Map<String, Entry> entries;
+    private List<Version> retired; // replaced versions that still have leases
+    private Map<String, WeakReference<String>> strings;
+
+    // Loads use numThreads to train on training files; metrics may be null.
+    public ModelRegistry(Long memoryBudgetBytes, Integer numThreads, TaggerMetrics metrics, PrintStream log) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.numThreads = numThreads;
+        this.metrics = metrics;
+        this.log = log;
+
+        entries = new LinkedHashMap<>();
+        retired = new ArrayList<>();
+        strings = new WeakHashMap<>();
+    }
+
+    // modelFilename is a snapshot or comma-separated training files, as for WSJPOSTagger.
+    public synchronized void register(String name, String modelFilename, Integer maxSuffixLength, Integer maxWordFrequency) {
+        if (entries.containsKey(name)) {
+            throw new IllegalArgumentException("Model " + name + " is already registered");
+        }
+        entries.put(name, new Entry(name, modelFilename, maxSuffixLength, maxWordFrequency));
+    }
+
+    public synchronized Boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    public synchronized List<String> getModelNames() {
+        return new ArrayList<>(entries.keySet());
+    }
+
+    public synchronized Boolean isLoaded(String name) {
+        return getEntry(name).current != null;
+    }
+
+    public Long getMemoryBudget() {
+        return memoryBudgetBytes;
+    }
+
+    // The current version of the model, loading it first if needed. The lease must be
+    // closed when the caller is done with the Viterbi.
+    public Lease acquire(String name) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = getEntry(name);
+            if (entry.current != null) {
+                return lease(entry.current);
+            }
+        }
+
+        // one load per model at a time; other models stay available while it runs
+        synchronized (entry) {
+            synchronized (this) {
+                if (entry.current != null) {
+                    return lease(entry.current);
+                }
+            }
+
+            Viterbi viterbi = load(entry);
+            synchronized (this) {
+                Lease lease = lease(publish(entry, viterbi));
+                evictIdle();
+                return lease;
+            }
+        }
+    }
+
+    // Loads the model again from its files and publishes it. Decodes holding a lease on
+    // the previous version finish on it; new leases get the new version.
+    public Integer reload(String name) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = getEntry(name);
+        }
+
+        synchronized (entry) {
+            Viterbi viterbi = load(entry);
+            synchronized (this) {
+                Version version = publish(entry, viterbi);
+                evictIdle();
+                return version.number;
+            }
+        }
+    }
+
+    // Publishes a model built elsewhere, e.g. by a ModelUpdater, as the next version.
+    public synchronized Integer publish(String name, Viterbi viterbi) {
+        Version version = publish(getEntry(name), viterbi);
+        evictIdle();
+
+        return version.number;
+    }
+
+    // Memory held by the distinct components of every version in use or loaded.
+    public synchronized long getSizeInBytes() {
+        return getSizeInBytes(getLiveVersions());
+    }
+
+    private Entry getEntry(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("Unknown model " + name);
+        }
+
+        return entry;
+    }
+
+    private Viterbi load(Entry entry) throws IOException {
+        log.println("Loading model " + entry.name + " from " + entry.modelFilename);
+        Viterbi viterbi = WSJPOSTagger.loadViterbi(entry.modelFilename, entry.maxSuffixLength, entry.maxWordFrequency, numThreads, metrics, log);
+
+        synchronized (this) {
+            for (Version version : getLiveVersions()) {
+                CompiledModel model = version.viterbi.model;
+                if (model != viterbi.model && model.hasSameContent(viterbi.model)) {
+                    log.println("Model " + entry.name + " shares its compiled model with " + version.entry.name);
+                    return share(viterbi, model);
+                }
+            }
+
+            viterbi.model.internStrings(this::intern);
+        }
+
+        return viterbi;
+    }
+
+    // The shared instance of a tag or word string. Strings no model uses any more are
+    // dropped by the garbage collector.
+    private String intern(String string) {
+        WeakReference<String> reference = strings.get(string);
+        String shared = reference == null ? null : reference.get();
+        if (shared == null) {
+            shared = string;
+            strings.put(shared, new WeakReference<>(shared));
+        }
+
+        return shared;
+    }
+
+    // The same decoder on an equal compiled model that is already loaded.
+    private static Viterbi share(Viterbi viterbi, CompiledModel model) {
+        Viterbi shared = new Viterbi(model, viterbi.upperCaseTree, viterbi.lowerCaseTree, viterbi.MAX_SUFFIX_LENGTH);
+        shared.setEmissionTable(viterbi.getEmissionTable());
+        shared.setMetrics(viterbi.getMetrics());
+
+        return shared;
+    }
+
+    private Version publish(Entry entry, Viterbi viterbi) {
+        Version previous = entry.current;
+        entry.current = new Version(entry, viterbi, ++entry.numVersions);
+        if (previous != null) {
+            retire(previous);
+        }
+        log.println("Published model " + entry.name + " version " + entry.current.number + ", "
+                + getSizeInBytes(getLiveVersions()) / 1024 + " KB of models in memory");
+
+        return entry.current;
+    }
+
+    private void retire(Version version) {
+        version.retired = true;
+        if (version.leases > 0) {
+            retired.add(version);
+        }
+    }
+
+    private Lease lease(Version version) {
+        version.leases++;
+        version.lastUsed = System.nanoTime();
+
+        return new Lease(this, version, version.viterbi);
+    }
+
+    private synchronized void release(Version version) {
+        version.leases--;
+        version.lastUsed = System.nanoTime();
+        if (version.retired && version.leases == 0) {
+            retired.remove(version);
+        }
+    }
+
+    // Evicts idle models, least recently used first, until the registry fits its budget.
+    // Models with leases are never evicted, so the budget can be exceeded while they run.
+    private void evictIdle() {
+        List<Version> live = getLiveVersions();
+        long size = getSizeInBytes(live);
+        while (size > memoryBudgetBytes) {
+            Version idlest = null;
+            for (Entry entry : entries.values()) {
+                Version version = entry.current;
+                if (version != null && version.leases == 0 && (idlest == null || version.lastUsed < idlest.lastUsed)) {
+                    idlest = version;
+                }
+            }
+            if (idlest == null) {
+                return;
+            }
+
+            idlest.entry.current = null;
+            idlest.retired = true;
+            live.remove(idlest);
+            long evictedSize = size;
+            size = getSizeInBytes(live);
+            log.println("Evicted model " + idlest.entry.name + ", freeing " + (evictedSize - size) / 1024 + " KB of "
+                    + memoryBudgetBytes / 1024 + " KB budget");
+        }
+    }
+
+    private List<Version> getLiveVersions() {
+        List<Version> live = new ArrayList<>(retired);
+        for (Entry entry : entries.values()) {
+            if (entry.current != null) {
+                live.add(entry.current);
+            }
+        }
+
+        return live;
+    }
+
+    // Each component is counted once, however many versions use it.
+    private static long getSizeInBytes(List<Version> versions) {
+        Set<Object> components = Collections.newSetFromMap(new IdentityHashMap<>());
+        long size = 0;
+        for (Version version : versions) {
+            Viterbi viterbi = version.viterbi;
+            if (components.add(viterbi.model)) {
+                size += viterbi.model.getSizeInBytes();
+            }
+            if (components.add(viterbi.upperCaseTree)) {
+                size += viterbi.upperCaseTree.getSizeInBytes();
+            }
+            if (components.add(viterbi.lowerCaseTree)) {
+                size += viterbi.lowerCaseTree.getSizeInBytes();
+            }
+            if (viterbi.emissionTable != null && components.add(viterbi.emissionTable)) {
+                size += viterbi.emissionTable.getSizeInBytes();
+            }
+        }
+
+        return size;
+    }
+
+    // A version of a model in use. Closing it lets the registry free the version once it
+    // has been replaced or evicted and no other lease holds it.
+    public static class Lease implements AutoCloseable {
+
+        private ModelRegistry registry;
+        private Version version;
+        private Viterbi viterbi;
+        private boolean closed;
+
+        private Lease(ModelRegistry registry, Version version, Viterbi viterbi) {
+            this.registry = registry;
+            this.version = version;
+            this.viterbi = viterbi;
+        }
+
+        // A lease on a model that is not managed by a registry, for which closing does nothing.
+        static Lease of(Viterbi viterbi) {
+            return new Lease(null, null, viterbi);
+        }
+
+        public Viterbi getViterbi() {
+            return viterbi;
+        }
+
+        // 1 for the first version loaded, then one more for every reload or publish.
+        public Integer getVersion() {
+            return version == null ? 0 : version.number;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed && registry != null) {
+                registry.release(version);
+            }
+            closed = true;
+        }
+
+    }
+
+    private static class Entry {
+
+        String name;
+        String modelFilename;
+        Integer maxSuffixLength;
+        Integer maxWordFrequency;
+        Version current;
+        Integer numVersions;
+
+        Entry(String name, String modelFilename, Integer maxSuffixLength, Integer maxWordFrequency) {
+            this.name = name;
+            this.modelFilename = modelFilename;
+            this.maxSuffixLength = maxSuffixLength;
+            this.maxWordFrequency = maxWordFrequency;
+            numVersions = 0;
+        }
+
+    }
+
+    private static class Version {
+
+        Entry entry;
+        Viterbi viterbi;
+        Integer number;
+        Integer leases;
+        long lastUsed;
+        boolean retired;
+
+        Version(Entry entry, Viterbi viterbi, Integer number) {
+            this.entry = entry;
+            this.viterbi = viterbi;
+            this.number = number;
+            leases = 0;
+            lastUsed = System.nanoTime();
+        }
+
+    }
+
+}
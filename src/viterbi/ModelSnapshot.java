@@ -0,0 +1,194 @@
+package viterbi;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+// Binary snapshot of everything Viterbi needs to tag sentences: the compiled bigram
+// model and both frozen suffix trees. Loading maps the file read-only and bulk-copies
+// the arrays out of the mapping, so no training data has to be parsed at startup and
+// concurrent loads on one host read the same page cache.
+//
+// Layout (big-endian): MAGIC, VERSION, maxSuffixLength, compiled model, upper-case
+// tree, lower-case tree. Arrays are length-prefixed, strings are length-prefixed UTF-8.
+public class ModelSnapshot {
+
+    private static final int MAGIC = 0x484d4d53; // "HMMS"
+    private static final int VERSION = 2;
+
+    private CompiledModel model;
+    private SuffixTree upperCaseTree;
+    private SuffixTree lowerCaseTree;
+    private Integer maxSuffixLength;
+
+    public ModelSnapshot(CompiledModel model, SuffixTree upperCaseTree, SuffixTree lowerCaseTree, Integer maxSuffixLength) {
+        this.model = model;
+        this.upperCaseTree = upperCaseTree;
+        this.lowerCaseTree = lowerCaseTree;
+        this.maxSuffixLength = maxSuffixLength;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 4) {
+            String errMsg = "Expected [TRAINING_FILENAME] [MAX_SUFFIX_LENGTH] [MAX_WORD_FREQUENCY] [SNAPSHOT_FILENAME], got " + args.length + " args.";
+            System.err.println(errMsg);
+            System.exit(99);
+        }
+
+        Integer maxSuffixLength = Integer.parseInt(args[1]);
+        Integer maxWordFrequency = Integer.parseInt(args[2]);
+
+        System.out.println("Training HMM model...");
+        BigramModel bigramModel = new BigramModel(maxSuffixLength);
+        try {
+            bigramModel.train(CorpusReader.getFiles(args[0]), Runtime.getRuntime().availableProcessors());
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+        SuffixTreeBuilder.Trees trees = new SuffixTreeBuilder(bigramModel, maxSuffixLength, maxWordFrequency).buildTrees();
+        System.out.println("Built suffix trees: " + trees);
+
+        ModelSnapshot snapshot = new ModelSnapshot(bigramModel.compile(), trees.getUpperCaseTree(), trees.getLowerCaseTree(), maxSuffixLength);
+        snapshot.save(new File(args[3]));
+        System.out.println("Wrote model snapshot to " + args[3]);
+    }
+
+    public CompiledModel getModel() {
+        return model;
+    }
+
+    public SuffixTree getUpperCaseTree() {
+        return upperCaseTree;
+    }
+
+    public SuffixTree getLowerCaseTree() {
+        return lowerCaseTree;
+    }
+
+    public Integer getMaxSuffixLength() {
+        return maxSuffixLength;
+    }
+
+    public Viterbi createViterbi() {
+        return new Viterbi(model, upperCaseTree, lowerCaseTree, maxSuffixLength);
+    }
+
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(maxSuffixLength);
+        model.write(out);
+        upperCaseTree.write(out);
+        lowerCaseTree.write(out);
+        out.close();
+    }
+
+    public static Boolean isSnapshot(File file) throws IOException {
+        if (!file.isFile() || file.length() < 4) {
+            return false;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        int magic = raf.readInt();
+        raf.close();
+
+        return magic == MAGIC;
+    }
+
+    public static ModelSnapshot load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel();
+        MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        raf.close();
+
+        if (in.getInt() != MAGIC) {
+            throw new IOException(file + " is not a model snapshot");
+        }
+        int version = in.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported model snapshot version " + version + ", expected " + VERSION);
+        }
+
+        Integer maxSuffixLength = in.getInt();
+        CompiledModel model = CompiledModel.read(in);
+        SuffixTree upperCaseTree = SuffixTree.read(model.getTags(), in);
+        SuffixTree lowerCaseTree = SuffixTree.read(model.getTags(), in);
+
+        return new ModelSnapshot(model, upperCaseTree, lowerCaseTree, maxSuffixLength);
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    static void writeChars(DataOutputStream out, char[] values) throws IOException {
+        out.writeInt(values.length);
+        for (char value : values) {
+            out.writeChar(value);
+        }
+    }
+
+    static void writeStrings(DataOutputStream out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    static int[] readInts(ByteBuffer in) {
+        int[] values = new int[in.getInt()];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * 4);
+
+        return values;
+    }
+
+    static double[] readDoubles(ByteBuffer in) {
+        double[] values = new double[in.getInt()];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + values.length * 8);
+
+        return values;
+    }
+
+    static char[] readChars(ByteBuffer in) {
+        char[] values = new char[in.getInt()];
+        in.asCharBuffer().get(values);
+        in.position(in.position() + values.length * 2);
+
+        return values;
+    }
+
+    static String[] readStrings(ByteBuffer in) {
+        String[] values = new String[in.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            values[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        return values;
+    }
+
+}
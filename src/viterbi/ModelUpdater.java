@@ -0,0 +1,92 @@
+package viterbi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Folds new labeled sentences into a trained model without retraining from scratch.
+// Each update builds a new immutable Viterbi (compiled model and frozen suffix trees)
+// and publishes it atomically; decodes already running keep the instance they started with.
+public class ModelUpdater {
+
+    private Integer MAX_SUFFIX_LENGTH;
+    private Integer MAX_WORD_FREQUENCY;
+
+    private BigramModel model;
+    private SuffixTreeBuilder treeBuilder;
+    private SuffixTree upperCaseTree;
+    private SuffixTree lowerCaseTree;
+    private AtomicReference<Viterbi> viterbi;
+    private Integer version;
+
+    public ModelUpdater(BigramModel bigramModel, Integer maxSuffixLength, Integer maxWordFrequency) {
+        MAX_SUFFIX_LENGTH = maxSuffixLength;
+        MAX_WORD_FREQUENCY = maxWordFrequency;
+
+        model = bigramModel;
+        treeBuilder = new SuffixTreeBuilder(model, MAX_SUFFIX_LENGTH, MAX_WORD_FREQUENCY);
+        buildTrees();
+        viterbi = new AtomicReference<>(new Viterbi(model, upperCaseTree, lowerCaseTree, MAX_SUFFIX_LENGTH));
+        version = 0;
+    }
+
+    // The most recently published model. Callers should fetch it once per batch of work.
+    public Viterbi getViterbi() {
+        return viterbi.get();
+    }
+
+    public synchronized Integer getVersion() {
+        return version;
+    }
+
+    // Fails without changing the published model when the file cannot be read or is not
+    // in the .pos format.
+    public synchronized Viterbi update(File sentences) throws IOException {
+        BigramModel batch = new BigramModel(MAX_SUFFIX_LENGTH);
+        batch.train(sentences);
+
+        return update(batch);
+    }
+
+    public synchronized Viterbi update(BigramModel batch) {
+        List<String> previousTags = model.getTags();
+        Map<String, Map<String, Integer>> previousUpperCaseCounts = new HashMap<>();
+        Map<String, Map<String, Integer>> previousLowerCaseCounts = new HashMap<>();
+        for (String word : batch.getWords()) {
+            Map<String, Map<String, Integer>> previousCounts = Character.isUpperCase(word.charAt(0)) ? previousUpperCaseCounts : previousLowerCaseCounts;
+            previousCounts.put(word, model.getWordTagCounts(word));
+        }
+
+        model.merge(batch);
+        if (model.getTags().equals(previousTags)) {
+            upperCaseTree = treeBuilder.updateTree(upperCaseTree, previousUpperCaseCounts);
+            lowerCaseTree = treeBuilder.updateTree(lowerCaseTree, previousLowerCaseCounts);
+        } else {
+            // new tags change the layout of every node, so the trees are rebuilt
+            buildTrees();
+        }
+
+        Viterbi previous = viterbi.get();
+        Viterbi updated = new Viterbi(model, upperCaseTree, lowerCaseTree, MAX_SUFFIX_LENGTH);
+        updated.setDecodeMode(previous.getDecodeMode());
+        updated.setEmissionCache(new EmissionCache(previous.getEmissionCache().getCapacity()));
+        updated.setMetrics(previous.getMetrics());
+        if (previous.getEmissionTable() != null) {
+            updated.precomputeEmissions();
+        }
+        viterbi.set(updated);
+        version++;
+
+        return updated;
+    }
+
+    private void buildTrees() {
+        SuffixTreeBuilder.Trees trees = treeBuilder.buildTrees();
+        upperCaseTree = trees.getUpperCaseTree();
+        lowerCaseTree = trees.getLowerCaseTree();
+    }
+
+}
@@ -0,0 +1,234 @@
+package viterbi;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+
+// Counts kept in direct buffers outside the Java heap, so a very large vocabulary adds
+// neither GC work nor per-entry object headers. The vocabulary is an open-addressing hash
+// table of word ids over the words' characters, stored back to back; a minimal perfect
+// hash would be smaller, but needs every word up front, and words arrive while training.
+// The tags of a word form a linked list of (tag, count, next) entries.
+//
+// Buffers double when full, and the old buffer is freed by the garbage collector, so
+// -XX:MaxDirectMemorySize must leave room for two copies of the largest one.
+public class OffHeapWordTagCounts implements WordTagCounts {
+
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final int WORD_FIELDS = 5; // char offset, length, hash, word count, first entry
+    private static final int ENTRY_FIELDS = 3; // tag, count, next entry
+    private static final int CHAR_OFFSET = 0;
+    private static final int LENGTH = 1;
+    private static final int HASH = 2;
+    private static final int WORD_COUNT = 3;
+    private static final int FIRST_ENTRY = 4;
+    private static final int NONE = -1;
+
+    private IntBuffer slots; // word id + 1, or 0 when empty
+    private IntBuffer wordRecords;
+    private IntBuffer entries;
+    private CharBuffer chars;
+    private int numWords;
+    private int numEntries;
+    private int numChars;
+
+    public OffHeapWordTagCounts() {
+        slots = allocateInts(2 * INITIAL_CAPACITY);
+        wordRecords = allocateInts(WORD_FIELDS * INITIAL_CAPACITY);
+        entries = allocateInts(ENTRY_FIELDS * INITIAL_CAPACITY);
+        chars = allocateChars(8 * INITIAL_CAPACITY);
+    }
+
+    @Override
+    public WordTagCounts createEmpty() {
+        return new OffHeapWordTagCounts();
+    }
+
+    @Override
+    public int getWordId(String word) {
+        int hash = word.hashCode();
+        int mask = slots.capacity() - 1;
+        for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+            int wordId = slots.get(slot) - 1;
+            if (wordId == NONE) {
+                return NONE;
+            }
+            if (wordRecords.get(wordId * WORD_FIELDS + HASH) == hash && matches(wordId, word)) {
+                return wordId;
+            }
+        }
+    }
+
+    private boolean matches(int wordId, String word) {
+        int record = wordId * WORD_FIELDS;
+        int length = wordRecords.get(record + LENGTH);
+        if (length != word.length()) {
+            return false;
+        }
+
+        int offset = wordRecords.get(record + CHAR_OFFSET);
+        for (int i = 0; i < length; i++) {
+            if (chars.get(offset + i) != word.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int addWord(String word) {
+        int wordId = getWordId(word);
+        if (wordId != NONE) {
+            return wordId;
+        }
+
+        wordId = numWords++;
+        if (numWords * WORD_FIELDS > wordRecords.capacity()) {
+            wordRecords = grow(wordRecords, 2 * wordRecords.capacity());
+        }
+        if (numChars + word.length() > chars.capacity()) {
+            chars = grow(chars, Math.max(2 * chars.capacity(), numChars + word.length()));
+        }
+
+        int record = wordId * WORD_FIELDS;
+        wordRecords.put(record + CHAR_OFFSET, numChars);
+        wordRecords.put(record + LENGTH, word.length());
+        wordRecords.put(record + HASH, word.hashCode());
+        wordRecords.put(record + WORD_COUNT, 0);
+        wordRecords.put(record + FIRST_ENTRY, NONE);
+        for (int i = 0; i < word.length(); i++) {
+            chars.put(numChars++, word.charAt(i));
+        }
+
+        if (2 * numWords > slots.capacity()) {
+            rehash(2 * slots.capacity());
+        } else {
+            insertSlot(wordId);
+        }
+
+        return wordId;
+    }
+
+    private void insertSlot(int wordId) {
+        int mask = slots.capacity() - 1;
+        int slot = wordRecords.get(wordId * WORD_FIELDS + HASH) & mask;
+        while (slots.get(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots.put(slot, wordId + 1);
+    }
+
+    private void rehash(int capacity) {
+        slots = allocateInts(capacity);
+        for (int wordId = 0; wordId < numWords; wordId++) {
+            insertSlot(wordId);
+        }
+    }
+
+    @Override
+    public String getWord(int wordId) {
+        int record = wordId * WORD_FIELDS;
+        int offset = wordRecords.get(record + CHAR_OFFSET);
+        int length = wordRecords.get(record + LENGTH);
+        char[] word = new char[length];
+        for (int i = 0; i < length; i++) {
+            word[i] = chars.get(offset + i);
+        }
+
+        return new String(word);
+    }
+
+    @Override
+    public int getNumWords() {
+        return numWords;
+    }
+
+    @Override
+    public int getWordCount(int wordId) {
+        return wordRecords.get(wordId * WORD_FIELDS + WORD_COUNT);
+    }
+
+    @Override
+    public void addWordCount(int wordId, int count) {
+        int index = wordId * WORD_FIELDS + WORD_COUNT;
+        wordRecords.put(index, wordRecords.get(index) + count);
+    }
+
+    @Override
+    public int getWordTagCount(int wordId, int tagId) {
+        int entry = findEntry(wordId, tagId);
+
+        return entry == NONE ? 0 : entries.get(entry * ENTRY_FIELDS + 1);
+    }
+
+    @Override
+    public void addWordTagCount(int wordId, int tagId, int count) {
+        int entry = findEntry(wordId, tagId);
+        if (entry != NONE) {
+            int index = entry * ENTRY_FIELDS + 1;
+            entries.put(index, entries.get(index) + count);
+            return;
+        }
+
+        entry = numEntries++;
+        if (numEntries * ENTRY_FIELDS > entries.capacity()) {
+            entries = grow(entries, 2 * entries.capacity());
+        }
+        int head = wordId * WORD_FIELDS + FIRST_ENTRY;
+        entries.put(entry * ENTRY_FIELDS, tagId);
+        entries.put(entry * ENTRY_FIELDS + 1, count);
+        entries.put(entry * ENTRY_FIELDS + 2, wordRecords.get(head));
+        wordRecords.put(head, entry);
+    }
+
+    private int findEntry(int wordId, int tagId) {
+        int entry = wordRecords.get(wordId * WORD_FIELDS + FIRST_ENTRY);
+        while (entry != NONE && entries.get(entry * ENTRY_FIELDS) != tagId) {
+            entry = entries.get(entry * ENTRY_FIELDS + 2);
+        }
+
+        return entry;
+    }
+
+    @Override
+    public int getTagCounts(int wordId, int[] tagIds, int[] counts) {
+        int size = 0;
+        for (int entry = wordRecords.get(wordId * WORD_FIELDS + FIRST_ENTRY); entry != NONE; entry = entries.get(entry * ENTRY_FIELDS + 2)) {
+            tagIds[size] = entries.get(entry * ENTRY_FIELDS);
+            counts[size] = entries.get(entry * ENTRY_FIELDS + 1);
+            size++;
+        }
+
+        return size;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        return (slots.capacity() + wordRecords.capacity() + entries.capacity()) * 4L + chars.capacity() * 2L;
+    }
+
+    private static IntBuffer allocateInts(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    private static CharBuffer allocateChars(int capacity) {
+        return ByteBuffer.allocateDirect(capacity * 2).order(ByteOrder.nativeOrder()).asCharBuffer();
+    }
+
+    private static IntBuffer grow(IntBuffer buffer, int capacity) {
+        IntBuffer grown = allocateInts(capacity);
+        grown.put(buffer.duplicate().clear());
+
+        return grown.clear();
+    }
+
+    private static CharBuffer grow(CharBuffer buffer, int capacity) {
+        CharBuffer grown = allocateChars(capacity);
+        grown.put(buffer.duplicate().clear());
+
+        return grown.clear();
+    }
+
+}
@@ -0,0 +1,26 @@
+package viterbi;
+
+// Used when the vector kernel is not compiled in or jdk.incubator.vector is not available.
+class ScalarColumnKernel implements ColumnKernel {
+
+    @Override
+    public void computeColumn(double[] transitions, int stride, double[] prevProbs, double[] emissionProbs, int numTags,
+                              double[] probs, int[] backpointer, int offset) {
+        for (int state = 0; state < numTags; state++) {
+            int row = state * stride;
+            double maxProb = Double.NEGATIVE_INFINITY;
+            int maxPrevState = 0;
+            for (int prevState = 0; prevState < numTags; prevState++) {
+                double prob = transitions[row + prevState] + prevProbs[prevState];
+                if (maxProb < prob) {
+                    maxProb = prob;
+                    maxPrevState = prevState;
+                }
+            }
+
+            probs[state] = maxProb + emissionProbs[state];
+            backpointer[offset + state] = maxPrevState;
+        }
+    }
+
+}
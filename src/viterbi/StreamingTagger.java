@@ -0,0 +1,130 @@
+package viterbi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Reads sentences in the .words format, tags them on a pool of decoder threads and
+// writes them in the .pos format, in input order, as soon as they are tagged. At most
+// maxSentencesInFlight sentences are held in memory; the reader blocks when the
+// writer falls behind.
+public class StreamingTagger {
+
+    private static final CompletableFuture<TaggedSentence> END_OF_INPUT = CompletableFuture.completedFuture(null);
+
+    private Viterbi viterbi;
+    private Integer numThreads;
+    private Integer maxSentencesInFlight;
+    private TaggerMetrics metrics;
+
+    public StreamingTagger(Viterbi viterbi, Integer numThreads, Integer maxSentencesInFlight) {
+        this.viterbi = viterbi;
+        this.numThreads = numThreads;
+        this.maxSentencesInFlight = maxSentencesInFlight;
+    }
+
+    // Records the time the writer spends writing as the "write" phase of metrics.
+    public void setMetrics(TaggerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Integer tag(InputStream input, Writer output) throws IOException, InterruptedException {
+        BlockingQueue<CompletableFuture<TaggedSentence>> pending = new ArrayBlockingQueue<>(maxSentencesInFlight);
+        ExecutorService decoders = Executors.newFixedThreadPool(numThreads);
+        Throwable[] writerError = new Throwable[1];
+        Integer[] numSentences = new Integer[] { 0 };
+
+        Thread writerThread = new Thread(() -> {
+            try {
+                writeSentences(pending, output, numSentences);
+            } catch (Throwable e) {
+                writerError[0] = e;
+            }
+        }, "tagger-writer");
+        writerThread.start();
+
+        try {
+            CorpusReader reader = new CorpusReader(input);
+            List<String> sentence;
+            while ((sentence = reader.nextSentence()) != null && writerThread.isAlive()) {
+                enqueue(pending, submit(decoders, sentence), writerThread);
+            }
+        } finally {
+            enqueue(pending, END_OF_INPUT, writerThread);
+            writerThread.join();
+            decoders.shutdown();
+        }
+
+        if (writerError[0] instanceof IOException) {
+            throw (IOException) writerError[0];
+        } else if (writerError[0] instanceof CompletionException) {
+            throw new IOException("Failed to tag sentence", writerError[0].getCause());
+        } else if (writerError[0] != null) {
+            throw new IOException(writerError[0]);
+        }
+
+        return numSentences[0];
+    }
+
+    // Blocks while the queue is full, unless the writer has stopped and will never drain it.
+    private void enqueue(BlockingQueue<CompletableFuture<TaggedSentence>> pending, CompletableFuture<TaggedSentence> sentence, Thread writerThread) throws InterruptedException {
+        while (!pending.offer(sentence, 100, TimeUnit.MILLISECONDS)) {
+            if (!writerThread.isAlive()) {
+                return;
+            }
+        }
+    }
+
+    private CompletableFuture<TaggedSentence> submit(ExecutorService decoders, List<String> sentence) {
+        return CompletableFuture.supplyAsync(() -> new TaggedSentence(sentence, viterbi.run(sentence)), decoders);
+    }
+
+    private void writeSentences(BlockingQueue<CompletableFuture<TaggedSentence>> pending, Writer output, Integer[] numSentences) throws IOException, InterruptedException {
+        long writeNanos = 0;
+        while (true) {
+            CompletableFuture<TaggedSentence> next = pending.take();
+            if (next == END_OF_INPUT) {
+                break;
+            }
+
+            if (!next.isDone()) {
+                output.flush(); // nothing ready to write, so let downstream consumers see what we have
+            }
+
+            TaggedSentence sentence = next.join();
+            long start = System.nanoTime();
+            for (int i = 0; i < sentence.words.size(); i++) {
+                output.write(sentence.words.get(i) + "\t" + sentence.tags.get(i) + "\n");
+            }
+            output.write("\n");
+            writeNanos += System.nanoTime() - start;
+            numSentences[0]++;
+        }
+
+        output.flush();
+        if (metrics != null) {
+            metrics.recordPhase("write", writeNanos);
+        }
+    }
+
+    private static class TaggedSentence {
+
+        List<String> words;
+        List<String> tags;
+
+        TaggedSentence(List<String> words, List<String> tags) {
+            this.words = words;
+            this.tags = tags;
+        }
+
+    }
+
+}
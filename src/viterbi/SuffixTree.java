@@ -1,135 +1,401 @@
 package viterbi;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
+// Reversed-character trie: the children of a node extend its suffix by one
+// character to the left, so the node for "ing" is reached through 'g', 'n', 'i'.
 public class SuffixTree {
 
-    private Integer suffixCount;
+    private static final int ROOT = 0;
+    private static final int NONE = -1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private List<String> tags;
+    private Map<String, Integer> tagIds;
+    private Integer numTags;
     private Integer totalCount;
     private Integer totalTagCount;
     private Double theta;
-    private Map<String, SuffixTree> nodes;
-    private Map<String, Integer> tagCount;
-    private Map<String, Integer> tagSuffixCount;
+    private int[] tagCount;
+    private int[] wordTagCount; // token counts of the tree's words per tag, used to estimate theta
+    private Boolean frozen;
+
+    private int numNodes;
+    private char[] label;
+    private int[] parent;
+    private int[] firstChild;
+    private int[] nextSibling;
+    private int[] suffixCount;
+    private int[] tagSuffixCount; // indexed by node * numTags + tag
+    private double[] tagSuffixProbability; // smoothed, indexed by node * numTags + tag, filled by freeze()
+
+    public SuffixTree(List<String> tags) {
+        this.tags = List.copyOf(tags);
+        numTags = tags.size();
+        tagIds = new HashMap<>();
+        for (int tag = 0; tag < numTags; tag++) {
+            tagIds.put(tags.get(tag), tag);
+        }
 
-    public SuffixTree() {
-        suffixCount = 0;
         totalCount = 0;
         totalTagCount = 0;
-        nodes = new HashMap<>();
-        tagCount = new HashMap<>();
-        tagSuffixCount = new HashMap<>();
+        tagCount = new int[numTags];
+        wordTagCount = new int[numTags];
+        frozen = false;
+
+        label = new char[INITIAL_CAPACITY];
+        parent = new int[INITIAL_CAPACITY];
+        firstChild = new int[INITIAL_CAPACITY];
+        nextSibling = new int[INITIAL_CAPACITY];
+        suffixCount = new int[INITIAL_CAPACITY];
+        tagSuffixCount = new int[INITIAL_CAPACITY * numTags];
+        numNodes = 0;
+        createNode(NONE, '\0');
+    }
+
+    private SuffixTree(List<String> tags, ByteBuffer in) {
+        this(tags);
+        totalCount = in.getInt();
+        totalTagCount = in.getInt();
+        theta = in.getDouble();
+        tagCount = ModelSnapshot.readInts(in);
+        wordTagCount = ModelSnapshot.readInts(in);
+        label = ModelSnapshot.readChars(in);
+        parent = ModelSnapshot.readInts(in);
+        firstChild = ModelSnapshot.readInts(in);
+        nextSibling = ModelSnapshot.readInts(in);
+        suffixCount = ModelSnapshot.readInts(in);
+        tagSuffixCount = ModelSnapshot.readInts(in);
+        tagSuffixProbability = ModelSnapshot.readDoubles(in);
+        numNodes = label.length;
+        frozen = true;
+    }
+
+    public List<String> getTags() {
+        return tags;
     }
 
     public Boolean hasSuffix(String suffix) {
-        SuffixTree pointer = getSubtree(suffix);
+        int node = findNode(suffix);
 
-        return pointer.getCount() > 0;
+        return node != NONE && suffixCount[node] > 0;
     }
 
     public Integer getTotalSuffixCount() {
         return totalCount;
     }
 
-    public void setTheta(Double theta) {
-        this.theta = theta;
+    public Integer getNumNodes() {
+        return numNodes;
     }
 
-    public Integer getCount() {
-        return suffixCount;
+    public Double getTheta() {
+        return theta;
     }
 
-    public void incrementCount() {
-        suffixCount++;
+    public void setTheta(Double theta) {
+        checkNotFrozen();
+        this.theta = theta;
     }
 
-    public Integer getTagCount(String tag) {
-        return tagCount.getOrDefault(tag, 0);
-    }
+    public Integer getWordTagCount(String tag) {
+        int tagId = getTagId(tag);
 
-    public void incrementTagCount(String tag) {
-        Integer tCount = tagCount.getOrDefault(tag, 0) + 1;
-        tagCount.put(tag, tCount);
+        return tagId == NONE ? 0 : wordTagCount[tagId];
     }
 
-    public Integer getTagSuffixCount(String tag) {
-        return tagSuffixCount.getOrDefault(tag, 0);
+    public void addWordTagCount(String tag, Integer count) {
+        checkNotFrozen();
+        wordTagCount[getKnownTagId(tag)] += count;
     }
 
-    public void incrementTagSuffixCount(String tag) {
-        Integer tsCount = tagSuffixCount.getOrDefault(tag, 0) + 1;
-        tagSuffixCount.put(tag, tsCount);
+    // Returns an unfrozen copy that can be modified without affecting this tree.
+    public SuffixTree copy() {
+        SuffixTree tree = new SuffixTree(tags);
+        tree.totalCount = totalCount;
+        tree.totalTagCount = totalTagCount;
+        tree.theta = theta;
+        tree.tagCount = tagCount.clone();
+        tree.wordTagCount = wordTagCount.clone();
+        tree.numNodes = numNodes;
+        tree.label = Arrays.copyOf(label, numNodes);
+        tree.parent = Arrays.copyOf(parent, numNodes);
+        tree.firstChild = Arrays.copyOf(firstChild, numNodes);
+        tree.nextSibling = Arrays.copyOf(nextSibling, numNodes);
+        tree.suffixCount = Arrays.copyOf(suffixCount, numNodes);
+        tree.tagSuffixCount = Arrays.copyOf(tagSuffixCount, numNodes * numTags);
+
+        return tree;
     }
 
-    public SuffixTree get(String letter) {
-        return nodes.get(letter);
+    public Boolean isFrozen() {
+        return frozen;
     }
 
-    public void put(String key, SuffixTree val) {
-        nodes.put(key, val);
+    // Precomputes the smoothed tag distribution of every node and makes the tree
+    // read-only, so a frozen tree can be shared by any number of decoding threads.
+    public void freeze() {
+        if (frozen) {
+            return;
+        }
+
+        label = Arrays.copyOf(label, numNodes);
+        parent = Arrays.copyOf(parent, numNodes);
+        firstChild = Arrays.copyOf(firstChild, numNodes);
+        nextSibling = Arrays.copyOf(nextSibling, numNodes);
+        suffixCount = Arrays.copyOf(suffixCount, numNodes);
+        tagSuffixCount = Arrays.copyOf(tagSuffixCount, numNodes * numTags);
+
+        // parents are always created before their children
+        tagSuffixProbability = new double[numNodes * numTags];
+        for (int node = ROOT + 1; node < numNodes; node++) {
+            if (suffixCount[node] == 0) {
+                continue;
+            }
+
+            int offset = node * numTags;
+            int parentOffset = parent[node] * numTags;
+            for (int tag = 0; tag < numTags; tag++) {
+                double mle = tagSuffixCount[offset + tag] / (double) suffixCount[node];
+                tagSuffixProbability[offset + tag] = (mle + (theta * tagSuffixProbability[parentOffset + tag])) / (1 + theta);
+            }
+        }
+
+        frozen = true;
     }
 
     public void addSuffix(String suffix, String tag) {
-        incrementTagCount(tag);
-        for (int i = 0; i < suffix.length(); i++) {
-            SuffixTree pointer = getSubtree(suffix.substring(i));
+        addSuffix(suffix, tag, 1);
+    }
 
-            pointer.incrementTagSuffixCount(tag);
-            pointer.incrementCount();
-            totalCount++;
-            totalTagCount++;
+    // Adds weight occurrences of suffix with tag; a negative weight removes them again.
+    public void addSuffix(String suffix, String tag, Integer weight) {
+        checkNotFrozen();
+        int tagId = getKnownTagId(tag);
+
+        tagCount[tagId] += weight;
+        int node = ROOT;
+        for (int i = suffix.length() - 1; i >= 0; i--) {
+            node = getOrCreateChild(node, suffix.charAt(i));
+            suffixCount[node] += weight;
+            tagSuffixCount[node * numTags + tagId] += weight;
+            totalCount += weight;
+            totalTagCount += weight;
         }
     }
 
-    public boolean containsKey(String key) {
-        return nodes.containsKey(key);
+    // Adds tagCounts[tag] occurrences of suffix with each tag, in one walk down the tree.
+    public void addSuffix(String suffix, int[] tagCounts) {
+        checkNotFrozen();
+        Integer weight = 0;
+        for (int tag = 0; tag < numTags; tag++) {
+            tagCount[tag] += tagCounts[tag];
+            weight += tagCounts[tag];
+        }
+
+        int node = ROOT;
+        for (int i = suffix.length() - 1; i >= 0; i--) {
+            node = getOrCreateChild(node, suffix.charAt(i));
+            suffixCount[node] += weight;
+            int offset = node * numTags;
+            for (int tag = 0; tag < numTags; tag++) {
+                tagSuffixCount[offset + tag] += tagCounts[tag];
+            }
+            totalCount += weight;
+            totalTagCount += weight;
+        }
     }
 
     public Double getTagSuffixProbability(String suffix, String tag) {
-        Stack<Double> mles = new Stack<>();
-        for (int i = 0; i < suffix.length(); i++) {
-            SuffixTree pointer = getSubtree(suffix.substring(i));
-            Integer suffixCount = pointer.getCount();
-            Integer tagSuffixCount = pointer.getTagSuffixCount(tag);
-
-            Double mle = tagSuffixCount / (double) suffixCount;
-            mles.push(mle);
-        }
+        int tagId = getTagId(tag);
 
         Double probability = 0.0;
-        while (!mles.empty()) {
-            probability = (mles.pop() + (theta * probability)) / (1 + theta);
+        int node = ROOT;
+        for (int i = suffix.length() - 1; i >= 0; i--) {
+            node = node == NONE ? NONE : getChild(node, suffix.charAt(i));
+            Integer count = node == NONE ? 0 : suffixCount[node];
+            Integer tagSuffixCount = node == NONE || tagId == NONE ? 0 : this.tagSuffixCount[node * numTags + tagId];
+
+            Double mle = tagSuffixCount / (double) count;
+            probability = (mle + (theta * probability)) / (1 + theta);
         }
 
         return probability;
     }
 
     public Double getSuffixProbability(String suffix) {
-        SuffixTree pointer = getSubtree(suffix);
-        Integer suffixCount = pointer.getCount();
+        int node = findNode(suffix);
+        Integer count = node == NONE ? 0 : suffixCount[node];
 
-        return suffixCount / (double) totalCount;
+        return count / (double) totalCount;
     }
 
     public Double getTagProbability(String suffix, String tag) {
-        Integer tagCount = getTagCount(tag);
+        int tagId = getTagId(tag);
+        Integer count = tagId == NONE ? 0 : tagCount[tagId];
+
+        return count / (double) totalTagCount;
+    }
+
+    // Fills probWordIsTag with P(suffix | tag) for the longest suffix of suffix seen in
+    // training, as P(tag | suffix) * P(suffix) / P(tag). Tags are in getTags() order.
+    // Returns the length of the suffix that was matched.
+    public int getTagDistribution(String suffix, double[] probWordIsTag) {
+        if (!frozen) {
+            throw new IllegalStateException("Suffix tree must be frozen before computing tag distributions");
+        }
 
-        return tagCount / (double) totalTagCount;
+        int node = ROOT;
+        int depth = 0;
+        for (int i = suffix.length() - 1; i >= 0; i--) {
+            int child = getChild(node, suffix.charAt(i));
+            if (child == NONE || suffixCount[child] == 0) {
+                break;
+            }
+            node = child;
+            depth++;
+        }
+        getTagDistribution(node, probWordIsTag);
+
+        return depth;
     }
 
-    private SuffixTree getSubtree(String suffix) {
-        SuffixTree pointer = this;
-        for (int i = 0; i < suffix.length(); i++) {
-            String letter = suffix.substring(i);
-            if (!pointer.containsKey(letter)) {
-                pointer.put(letter, new SuffixTree());
+    // The node getTagDistribution would use for the last maxSuffixLength characters of word.
+    int findSuffixNode(String word, int maxSuffixLength) {
+        int node = ROOT;
+        int end = Math.max(0, word.length() - maxSuffixLength);
+        for (int i = word.length() - 1; i >= end; i--) {
+            int child = getChild(node, word.charAt(i));
+            if (child == NONE || suffixCount[child] == 0) {
+                break;
             }
-            pointer = pointer.get(letter);
+            node = child;
         }
 
-        return pointer;
+        return node;
+    }
+
+    void getTagDistribution(int node, double[] probWordIsTag) {
+        int offset = node * numTags;
+        double suffixProb = suffixCount[node] / (double) totalCount;
+        for (int tag = 0; tag < numTags; tag++) {
+            double tagProb = tagCount[tag] / (double) totalTagCount;
+
+            probWordIsTag[tag] = 0.0; // handles case when tag never occurs in the suffix tree
+            if (tagProb > 0.0) {
+                probWordIsTag[tag] = tagSuffixProbability[offset + tag] * suffixProb / tagProb;
+            }
+        }
+    }
+
+    public long getSizeInBytes() {
+        long size = label.length * 2L;
+        size += (parent.length + firstChild.length + nextSibling.length + suffixCount.length) * 4L;
+        size += (tagSuffixCount.length + tagCount.length + wordTagCount.length) * 4L;
+        if (tagSuffixProbability != null) {
+            size += tagSuffixProbability.length * 8L;
+        }
+
+        return size;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        if (!frozen) {
+            throw new IllegalStateException("Suffix tree must be frozen before it is written");
+        }
+
+        out.writeInt(totalCount);
+        out.writeInt(totalTagCount);
+        out.writeDouble(theta);
+        ModelSnapshot.writeInts(out, tagCount);
+        ModelSnapshot.writeInts(out, wordTagCount);
+        ModelSnapshot.writeChars(out, label);
+        ModelSnapshot.writeInts(out, parent);
+        ModelSnapshot.writeInts(out, firstChild);
+        ModelSnapshot.writeInts(out, nextSibling);
+        ModelSnapshot.writeInts(out, suffixCount);
+        ModelSnapshot.writeInts(out, tagSuffixCount);
+        ModelSnapshot.writeDoubles(out, tagSuffixProbability);
+    }
+
+    static SuffixTree read(List<String> tags, ByteBuffer in) {
+        return new SuffixTree(tags, in);
+    }
+
+    private int getTagId(String tag) {
+        return tagIds.getOrDefault(tag, NONE);
+    }
+
+    private int getKnownTagId(String tag) {
+        int tagId = getTagId(tag);
+        if (tagId == NONE) {
+            throw new IllegalArgumentException("Unknown tag " + tag);
+        }
+
+        return tagId;
+    }
+
+    private int findNode(String suffix) {
+        int node = ROOT;
+        for (int i = suffix.length() - 1; i >= 0 && node != NONE; i--) {
+            node = getChild(node, suffix.charAt(i));
+        }
+
+        return node;
+    }
+
+    private int getChild(int node, char letter) {
+        int child = firstChild[node];
+        while (child != NONE && label[child] != letter) {
+            child = nextSibling[child];
+        }
+
+        return child;
+    }
+
+    private int getOrCreateChild(int node, char letter) {
+        int child = getChild(node, letter);
+        if (child == NONE) {
+            child = createNode(node, letter);
+        }
+
+        return child;
+    }
+
+    private int createNode(int parentNode, char letter) {
+        if (numNodes == label.length) {
+            int capacity = 2 * label.length;
+            label = Arrays.copyOf(label, capacity);
+            parent = Arrays.copyOf(parent, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            nextSibling = Arrays.copyOf(nextSibling, capacity);
+            suffixCount = Arrays.copyOf(suffixCount, capacity);
+            tagSuffixCount = Arrays.copyOf(tagSuffixCount, capacity * numTags);
+        }
+
+        int node = numNodes++;
+        label[node] = letter;
+        parent[node] = parentNode;
+        firstChild[node] = NONE;
+        nextSibling[node] = NONE;
+        if (parentNode != NONE) {
+            nextSibling[node] = firstChild[parentNode];
+            firstChild[parentNode] = node;
+        }
+
+        return node;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Suffix tree is frozen");
+        }
     }
 
 }
@@ -2,21 +2,31 @@ package viterbi;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
+// Rare words are inserted into the suffix trees weighted by their token counts, so a
+// suffix's tag distribution follows how often its words occur with each tag. With
+// -Dviterbi.suffixTypeCounts=true every (word, tag) type counts once instead, as in
+// trees built before token weights.
 public class SuffixTreeBuilder {
 
+    public static final String TYPE_COUNTS_PROPERTY = "viterbi.suffixTypeCounts";
+
     private Integer MAX_WORD_FREQUENCY;
     private Integer MAX_SUFFIX_LENGTH;
     private BigramModel model;
+    private Boolean typeCounts;
 
     public SuffixTreeBuilder(BigramModel bigramModel, Integer maxSuffixLength, Integer maxWordFreq) {
         MAX_SUFFIX_LENGTH = maxSuffixLength;
         MAX_WORD_FREQUENCY = maxWordFreq;
 
         model = bigramModel;
+        typeCounts = Boolean.getBoolean(TYPE_COUNTS_PROPERTY);
     }
 
     public SuffixTree buildUpperCaseTree() {
@@ -34,19 +44,210 @@ public class SuffixTreeBuilder {
     }
 
     public SuffixTree buildTree(List<String> words) {
-        List<String> suffixWords = new ArrayList<>();
+        WordTagCounts wordTagCounts = model.getWordTagCounts();
+        SuffixCounts counts = new SuffixCounts(model.getTags(), wordTagCounts);
         for (String word : words) {
+            counts.addWord(word, wordTagCounts.getWordId(word));
+        }
+
+        return counts.build();
+    }
+
+    // Builds both trees from one pass over the model's word/tag counts, then fills the two
+    // trees on separate threads. The trees are the same as those of buildUpperCaseTree and
+    // buildLowerCaseTree.
+    public Trees buildTrees() {
+        long start = System.nanoTime();
+        List<String> tags = model.getTags();
+        WordTagCounts wordTagCounts = model.getWordTagCounts();
+        SuffixCounts upperCaseCounts = new SuffixCounts(tags, wordTagCounts);
+        SuffixCounts lowerCaseCounts = new SuffixCounts(tags, wordTagCounts);
+        for (int wordId = 0; wordId < wordTagCounts.getNumWords(); wordId++) {
+            String word = wordTagCounts.getWord(wordId);
+            SuffixCounts counts = Character.isUpperCase(word.charAt(0)) ? upperCaseCounts : lowerCaseCounts;
+            counts.addWord(word, wordId);
+        }
+        long scanned = System.nanoTime();
+
+        CompletableFuture<SuffixTree> upperCaseTree = CompletableFuture.supplyAsync(upperCaseCounts::build);
+        SuffixTree lowerCaseTree = lowerCaseCounts.build();
+        Trees trees = new Trees(upperCaseTree.join(), lowerCaseTree);
+
+        trees.numWords = upperCaseCounts.numWords + lowerCaseCounts.numWords;
+        trees.numSuffixWords = upperCaseCounts.numSuffixWords + lowerCaseCounts.numSuffixWords;
+        trees.numSuffixes = upperCaseCounts.tagCounts.size() + lowerCaseCounts.tagCounts.size();
+        trees.scanNanos = scanned - start;
+        trees.insertNanos = System.nanoTime() - scanned;
+
+        return trees;
+    }
+
+    // Returns a new frozen tree equal to what buildTree would produce for the model's
+    // current counts. previousWordTagCounts holds, for every word of the tree's case whose
+    // counts changed since tree was built, its tag counts at that time (empty for new words).
+    // The model's tags must not have changed.
+    public SuffixTree updateTree(SuffixTree tree, Map<String, Map<String, Integer>> previousWordTagCounts) {
+        SuffixTree updatedTree = tree.copy();
+        for (Map.Entry<String, Map<String, Integer>> entry : previousWordTagCounts.entrySet()) {
+            String word = entry.getKey();
+            String suffix = getSuffix(word);
+
+            Integer previousCount = 0;
+            for (Integer count : entry.getValue().values()) {
+                previousCount += count;
+            }
+            if (previousCount > 0 && previousCount < MAX_WORD_FREQUENCY) {
+                for (Map.Entry<String, Integer> tagCount : entry.getValue().entrySet()) {
+                    updatedTree.addSuffix(suffix, tagCount.getKey(), -getWeight(tagCount.getValue()));
+                    updatedTree.addWordTagCount(tagCount.getKey(), -tagCount.getValue());
+                }
+            }
+
             if (model.getWordCount(word) < MAX_WORD_FREQUENCY) {
-                suffixWords.add(word);
+                for (String tag : model.getTagsForWord(word)) {
+                    Integer count = model.getWordTagCount(tag, word);
+                    updatedTree.addSuffix(suffix, tag, getWeight(count));
+                    updatedTree.addWordTagCount(tag, count);
+                }
             }
         }
 
-        List<String> tags = model.getTags();
+        updatedTree.setTheta(calculateTheta(updatedTree));
+        updatedTree.freeze();
+
+        return updatedTree;
+    }
+
+    // The weight of a word's tag at its suffix, given the word's token count with the tag.
+    private int getWeight(int count) {
+        return typeCounts ? 1 : count;
+    }
+
+    // Counts of the rare words of one tree, grouped by suffix so that every distinct suffix
+    // is inserted once, however many words end with it. A word adds the weight of each of
+    // its tags at its suffix, and its token counts to the tree's word/tag counts.
+    private class SuffixCounts {
+
+        List<String> tags;
+        WordTagCounts wordTagCounts;
+        Map<String, int[]> tagCounts; // insertion-ordered, so nodes are created in word order
+        int[] wordTagCount;
+        int[] wordTagIds;
+        int[] counts;
+        Integer numWords;
+        Integer numSuffixWords;
+
+        SuffixCounts(List<String> tags, WordTagCounts wordTagCounts) {
+            this.tags = tags;
+            this.wordTagCounts = wordTagCounts;
+            wordTagIds = new int[tags.size()];
+            counts = new int[tags.size()];
+            tagCounts = new LinkedHashMap<>();
+            wordTagCount = new int[tags.size()];
+            numWords = 0;
+            numSuffixWords = 0;
+        }
+
+        // wordId is the word's id in wordTagCounts, or -1 for a word the model has not seen.
+        void addWord(String word, int wordId) {
+            numWords++;
+            if (wordId < 0 || wordTagCounts.getWordCount(wordId) >= MAX_WORD_FREQUENCY) {
+                return;
+            }
+
+            int numWordTags = wordTagCounts.getTagCounts(wordId, wordTagIds, counts);
+            if (numWordTags == 0) {
+                return;
+            }
+            numSuffixWords++;
+            int[] suffixTagCounts = tagCounts.computeIfAbsent(getSuffix(word), suffix -> new int[tags.size()]);
+            for (int i = 0; i < numWordTags; i++) {
+                suffixTagCounts[wordTagIds[i]] += getWeight(counts[i]);
+                wordTagCount[wordTagIds[i]] += counts[i];
+            }
+        }
+
+        SuffixTree build() {
+            SuffixTree tree = new SuffixTree(tags);
+            for (int tag = 0; tag < tags.size(); tag++) {
+                tree.addWordTagCount(tags.get(tag), wordTagCount[tag]);
+            }
+            for (Map.Entry<String, int[]> suffix : tagCounts.entrySet()) {
+                tree.addSuffix(suffix.getKey(), suffix.getValue());
+            }
+
+            tree.setTheta(calculateTheta(tree));
+            tree.freeze();
+
+            return tree;
+        }
+
+    }
+
+    // Both suffix trees of a model and what it took to build them.
+    public static class Trees {
+
+        private SuffixTree upperCaseTree;
+        private SuffixTree lowerCaseTree;
+        private Integer numWords;
+        private Integer numSuffixWords;
+        private Integer numSuffixes;
+        private long scanNanos;
+        private long insertNanos;
+
+        Trees(SuffixTree upperCaseTree, SuffixTree lowerCaseTree) {
+            this.upperCaseTree = upperCaseTree;
+            this.lowerCaseTree = lowerCaseTree;
+        }
+
+        public SuffixTree getUpperCaseTree() {
+            return upperCaseTree;
+        }
+
+        public SuffixTree getLowerCaseTree() {
+            return lowerCaseTree;
+        }
+
+        public Integer getNumWords() {
+            return numWords;
+        }
+
+        // Words rarer than the maximum word frequency, whose suffixes are in the trees.
+        public Integer getNumSuffixWords() {
+            return numSuffixWords;
+        }
+
+        public Integer getNumSuffixes() {
+            return numSuffixes;
+        }
+
+        public long getScanNanos() {
+            return scanNanos;
+        }
+
+        public long getInsertNanos() {
+            return insertNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d words, %d rare words with %d distinct suffixes, %d + %d nodes, counted in %.1f ms, inserted in %.1f ms",
+                    numWords, numSuffixWords, numSuffixes, upperCaseTree.getNumNodes(), lowerCaseTree.getNumNodes(), scanNanos / 1e6, insertNanos / 1e6);
+        }
+
+    }
+
+    private String getSuffix(String word) {
+        Integer suffixLength = Math.min(MAX_SUFFIX_LENGTH, word.length());
+
+        return word.substring(word.length() - suffixLength);
+    }
+
+    private Double calculateTheta(SuffixTree tree) {
         Map<String, Integer> suffixTagCount = new HashMap<>();
-        for (String tag : tags) {
-            for (String word : suffixWords) {
-                Integer count = model.getWordTagCount(tag, word) + suffixTagCount.getOrDefault(tag, 0);
-                suffixTagCount.put(tag, count);
+        if (tree.getTotalSuffixCount() > 0) {
+            for (String tag : tree.getTags()) {
+                suffixTagCount.put(tag, tree.getWordTagCount(tag));
             }
         }
 
@@ -56,19 +257,7 @@ public class SuffixTreeBuilder {
             totalTags += suffixTagCount.get(tag);
         }
 
-        SuffixTree tree = new SuffixTree();
-        for (String word : suffixWords) {
-            List<String> wordTags = model.getTagsForWord(word);
-            for (String tag : wordTags) {
-                Integer suffixLength = Math.min(MAX_SUFFIX_LENGTH, word.length());
-                tree.addSuffix(word.substring(word.length() - suffixLength), tag);
-            }
-        }
-
-        Double theta = calculateTheta(suffixTags, suffixTagCount, totalTags);
-        tree.setTheta(theta);
-
-        return tree;
+        return calculateTheta(suffixTags, suffixTagCount, totalTags);
     }
 
     private Double calculateTheta(List<String> suffixTags, Map<String, Integer> suffixTagCount, final Integer totalTagCount) {
@@ -0,0 +1,233 @@
+package viterbi;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters and latency histograms for a running tagger. Components only record when a
+// TaggerMetrics has been attached to them, so a tagger without metrics pays one null
+// check per sentence. Enabled from the command line with -Dviterbi.metrics=SECONDS,
+// which registers the MBean and prints a snapshot every SECONDS seconds (0 for JMX only).
+public class TaggerMetrics implements TaggerMetricsMBean {
+
+    public static final String OBJECT_NAME = "viterbi:type=TaggerMetrics";
+    public static final String PROPERTY = "viterbi.metrics";
+    private static final Integer MAX_SUFFIX_DEPTH = 32;
+
+    private LongAdder sentences;
+    private LongAdder tokens;
+    private LongAdder unknownTokens;
+    private LongAdder cacheHits;
+    private LongAdder cacheMisses;
+    private LongAdder tableLookups;
+    private LongAdder[] suffixDepths;
+    private Histogram sentenceNanos;
+    private Histogram tokenNanos;
+    private Map<String, Long> phaseNanos;
+    private ScheduledExecutorService reporter;
+
+    public TaggerMetrics() {
+        sentences = new LongAdder();
+        tokens = new LongAdder();
+        unknownTokens = new LongAdder();
+        cacheHits = new LongAdder();
+        cacheMisses = new LongAdder();
+        tableLookups = new LongAdder();
+        suffixDepths = new LongAdder[MAX_SUFFIX_DEPTH + 1];
+        for (int i = 0; i <= MAX_SUFFIX_DEPTH; i++) {
+            suffixDepths[i] = new LongAdder();
+        }
+        sentenceNanos = new Histogram();
+        tokenNanos = new Histogram();
+        phaseNanos = new LinkedHashMap<>();
+    }
+
+    // Metrics configured by -Dviterbi.metrics, or null when the property is not set.
+    public static TaggerMetrics fromSystemProperties(PrintStream log) {
+        Integer reportSeconds = Integer.getInteger(PROPERTY);
+        if (reportSeconds == null) {
+            return null;
+        }
+
+        TaggerMetrics metrics = new TaggerMetrics();
+        try {
+            metrics.register();
+        } catch (JMException e) {
+            log.println("Could not register " + OBJECT_NAME + ": " + e);
+        }
+        if (reportSeconds > 0) {
+            metrics.startReporting(log, reportSeconds);
+        }
+
+        return metrics;
+    }
+
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    public synchronized void startReporting(PrintStream out, Integer periodSeconds) {
+        if (reporter != null) {
+            return;
+        }
+
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tagger-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.println(getSnapshot()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (reporter != null) {
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+
+    public void recordSentence(Integer numTokens, Integer numUnknownTokens, long nanos) {
+        sentences.increment();
+        tokens.add(numTokens);
+        unknownTokens.add(numUnknownTokens);
+        sentenceNanos.record(nanos);
+        tokenNanos.record(nanos / numTokens);
+    }
+
+    public void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    // An unknown word's emissions read from a precomputed EmissionTable, which bypasses
+    // both the emission cache and the suffix tree lookup.
+    public void recordTableLookup() {
+        tableLookups.increment();
+    }
+
+    // A suffix tree lookup after an emission cache miss, matching depth characters.
+    public void recordSuffixLookup(Integer depth) {
+        cacheMisses.increment();
+        suffixDepths[Math.min(depth, MAX_SUFFIX_DEPTH)].increment();
+    }
+
+    public synchronized void recordPhase(String phase, long nanos) {
+        phaseNanos.merge(phase, nanos, Long::sum);
+    }
+
+    @Override
+    public long getSentencesDecoded() {
+        return sentences.sum();
+    }
+
+    @Override
+    public long getTokensDecoded() {
+        return tokens.sum();
+    }
+
+    @Override
+    public long getUnknownTokens() {
+        return unknownTokens.sum();
+    }
+
+    @Override
+    public double getUnknownTokenRatio() {
+        long numTokens = tokens.sum();
+        return numTokens == 0 ? 0.0 : unknownTokens.sum() / (double) numTokens;
+    }
+
+    @Override
+    public long getEmissionCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getEmissionCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getEmissionCacheHitRate() {
+        long lookups = cacheHits.sum() + cacheMisses.sum();
+        return lookups == 0 ? 0.0 : cacheHits.sum() / (double) lookups;
+    }
+
+    @Override
+    public long getEmissionTableLookups() {
+        return tableLookups.sum();
+    }
+
+    @Override
+    public double getMeanSuffixDepth() {
+        long lookups = 0;
+        long totalDepth = 0;
+        for (int depth = 0; depth <= MAX_SUFFIX_DEPTH; depth++) {
+            long count = suffixDepths[depth].sum();
+            lookups += count;
+            totalDepth += depth * count;
+        }
+
+        return lookups == 0 ? 0.0 : totalDepth / (double) lookups;
+    }
+
+    public long[] getSuffixDepthCounts() {
+        long[] counts = new long[MAX_SUFFIX_DEPTH + 1];
+        for (int depth = 0; depth <= MAX_SUFFIX_DEPTH; depth++) {
+            counts[depth] = suffixDepths[depth].sum();
+        }
+
+        return counts;
+    }
+
+    @Override
+    public double getMeanSentenceMicros() {
+        return sentenceNanos.getMean() / 1e3;
+    }
+
+    @Override
+    public long getSentenceMicrosP50() {
+        return sentenceNanos.getPercentile(0.5) / 1000;
+    }
+
+    @Override
+    public long getSentenceMicrosP99() {
+        return sentenceNanos.getPercentile(0.99) / 1000;
+    }
+
+    @Override
+    public double getMeanTokenNanos() {
+        return tokenNanos.getMean();
+    }
+
+    @Override
+    public long getTokenNanosP99() {
+        return tokenNanos.getPercentile(0.99);
+    }
+
+    public synchronized Map<String, Long> getPhaseNanos() {
+        return new LinkedHashMap<>(phaseNanos);
+    }
+
+    @Override
+    public String getSnapshot() {
+        StringBuilder snapshot = new StringBuilder();
+        snapshot.append(String.format("sentences=%d tokens=%d unknown=%.2f%% decode=%.1f ms (all threads)",
+                getSentencesDecoded(), getTokensDecoded(), 100 * getUnknownTokenRatio(), sentenceNanos.getSum() / 1e6));
+        snapshot.append(String.format(" sentence_us(mean=%.1f p50<=%d p99<=%d) token_ns(mean=%.0f p99<=%d)",
+                getMeanSentenceMicros(), getSentenceMicrosP50(), getSentenceMicrosP99(), getMeanTokenNanos(), getTokenNanosP99()));
+        snapshot.append(String.format(" cache_hit=%.1f%% suffix_depth=%.2f table_lookups=%d",
+                100 * getEmissionCacheHitRate(), getMeanSuffixDepth(), getEmissionTableLookups()));
+        for (Map.Entry<String, Long> phase : getPhaseNanos().entrySet()) {
+            snapshot.append(String.format(" %s=%.1f ms", phase.getKey(), phase.getValue() / 1e6));
+        }
+
+        return snapshot.toString();
+    }
+
+}
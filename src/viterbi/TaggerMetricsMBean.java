@@ -0,0 +1,36 @@
+package viterbi;
+
+// Attributes of TaggerMetrics as seen through JMX, e.g. in jconsole under viterbi:type=TaggerMetrics.
+public interface TaggerMetricsMBean {
+
+    long getSentencesDecoded();
+
+    long getTokensDecoded();
+
+    long getUnknownTokens();
+
+    double getUnknownTokenRatio();
+
+    long getEmissionCacheHits();
+
+    long getEmissionCacheMisses();
+
+    double getEmissionCacheHitRate();
+
+    long getEmissionTableLookups();
+
+    double getMeanSuffixDepth();
+
+    double getMeanSentenceMicros();
+
+    long getSentenceMicrosP50();
+
+    long getSentenceMicrosP99();
+
+    double getMeanTokenNanos();
+
+    long getTokenNanosP99();
+
+    String getSnapshot();
+
+}
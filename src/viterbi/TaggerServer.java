@@ -0,0 +1,442 @@
+package viterbi;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+// Long-running tagging service. The model is loaded once at startup and sentences are
+// tagged through POST /tag, either as JSON ({"sentences": [["The", "dog"], ...]} or a bare
+// array of sentences, answered with {"tags": [["DT", "NN"], ...]}) or as text in the .words
+// format, answered in the .pos format.
+//
+// With -Dviterbi.models=FILE the server hosts several models in a ModelRegistry: the
+// model given on the command line is named "default", FILE lists more models one per line
+// as NAME MODEL_FILENAME MAX_SUFFIX_LENGTH MAX_WORD_FREQUENCY, and /tag?model=NAME picks
+// one. POST /reload?model=NAME loads a model again from its files and swaps it in.
+public class TaggerServer {
+
+    public static final String MODELS_PROPERTY = "viterbi.models";
+    public static final String MEMORY_BUDGET_PROPERTY = "viterbi.memoryBudgetMB";
+    public static final String DEFAULT_MODEL = "default";
+
+    private static final Integer MAX_BATCH_SIZE = 256;
+    private static final Long DEFAULT_MAX_BATCH_DELAY_MILLIS = 2L;
+    private static final Integer MAX_CONNECTIONS = 64;
+    private static final Integer MAX_QUEUED_REQUESTS = 1024;
+    static final Integer MAX_REQUEST_BYTES = 8 << 20;
+
+    private HttpServer server;
+    private BatchingTagger tagger;
+    private ModelRegistry registry;
+    private ExecutorService connections;
+
+    public TaggerServer(BatchingTagger tagger, InetSocketAddress address) throws IOException {
+        this(tagger, null, address);
+    }
+
+    // Tags with the models of registry, batched together on one pool of numThreads threads.
+    public TaggerServer(ModelRegistry registry, Integer numThreads, Long maxBatchDelayMillis, InetSocketAddress address) throws IOException {
+        this(new BatchingTagger(registry, numThreads, MAX_BATCH_SIZE, maxBatchDelayMillis, MAX_QUEUED_REQUESTS), registry, address);
+        server.createContext("/reload", this::handleReload);
+    }
+
+    private TaggerServer(BatchingTagger tagger, ModelRegistry registry, InetSocketAddress address) throws IOException {
+        this.tagger = tagger;
+        this.registry = registry;
+        connections = Executors.newFixedThreadPool(MAX_CONNECTIONS);
+        server = HttpServer.create(address, 0);
+        server.createContext("/tag", this::handleTag);
+        server.setExecutor(connections);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4 || args.length > 6) {
+            String errMsg = "Expected [MODEL_FILENAME] [MAX_SUFFIX_LENGTH] [MAX_WORD_FREQUENCY] [PORT] [NUM_THREADS (optional)] [MAX_BATCH_DELAY_MS (optional)], got " + args.length + " args.";
+            System.err.println(errMsg);
+            System.exit(99);
+        }
+
+        Integer maxSuffixLength = Integer.parseInt(args[1]);
+        Integer maxWordFrequency = Integer.parseInt(args[2]);
+        Integer port = Integer.parseInt(args[3]);
+        Integer numThreads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        Long maxBatchDelayMillis = args.length > 5 ? Long.parseLong(args[5]) : DEFAULT_MAX_BATCH_DELAY_MILLIS;
+
+        TaggerMetrics metrics = TaggerMetrics.fromSystemProperties(System.out);
+        TaggerServer server;
+        String modelsFilename = System.getProperty(MODELS_PROPERTY);
+        try {
+            if (modelsFilename == null) {
+                Viterbi viterbi = WSJPOSTagger.loadViterbi(args[0], maxSuffixLength, maxWordFrequency, numThreads, metrics, System.out);
+                BatchingTagger tagger = new BatchingTagger(() -> viterbi, numThreads, MAX_BATCH_SIZE, maxBatchDelayMillis, MAX_QUEUED_REQUESTS);
+                server = new TaggerServer(tagger, new InetSocketAddress(port));
+            } else {
+                Long memoryBudgetMB = Long.getLong(MEMORY_BUDGET_PROPERTY);
+                ModelRegistry registry = new ModelRegistry(memoryBudgetMB == null ? Long.MAX_VALUE : memoryBudgetMB << 20, numThreads, metrics, System.out);
+                registry.register(DEFAULT_MODEL, args[0], maxSuffixLength, maxWordFrequency);
+                registerModels(registry, modelsFilename);
+                registry.acquire(DEFAULT_MODEL).close(); // the other models load on their first request
+                server = new TaggerServer(registry, numThreads, maxBatchDelayMillis, new InetSocketAddress(port));
+                System.out.println("Serving models " + registry.getModelNames());
+            }
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        server.start();
+
+        System.out.println("Tagging on port " + server.getPort() + " with " + numThreads + " threads and a maximum batch delay of " + maxBatchDelayMillis + " ms");
+    }
+
+    private static void registerModels(ModelRegistry registry, String modelsFilename) throws IOException {
+        for (String line : Files.readAllLines(Paths.get(modelsFilename))) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] fields = line.split("\\s+");
+            if (fields.length != 4) {
+                String errMsg = "Expected [NAME] [MODEL_FILENAME] [MAX_SUFFIX_LENGTH] [MAX_WORD_FREQUENCY] in " + modelsFilename + ", got: " + line;
+                System.err.println(errMsg);
+                System.exit(99);
+            }
+            registry.register(fields[0], fields[1], Integer.parseInt(fields[2]), Integer.parseInt(fields[3]));
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        tagger.shutdown();
+        connections.shutdown();
+    }
+
+    public Integer getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleTag(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "text/plain", "Use POST\n");
+                return;
+            }
+
+            String model = getQueryParameter(exchange, "model", DEFAULT_MODEL);
+            if (!hasModel(model)) {
+                respond(exchange, 404, "text/plain", "Unknown model " + model + "\n");
+                return;
+            }
+
+            // reads one byte past the limit to tell a body at the limit from a longer one
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_REQUEST_BYTES + 1);
+            if (body.length > MAX_REQUEST_BYTES) {
+                respond(exchange, 413, "text/plain", "Request body is larger than " + MAX_REQUEST_BYTES + " bytes\n");
+                return;
+            }
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            Boolean json = contentType != null && contentType.contains("json");
+
+            List<List<String>> sentences;
+            try {
+                sentences = json ? parseJson(new String(body, StandardCharsets.UTF_8)) : parseWords(body);
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, "text/plain", e.getMessage() + "\n");
+                return;
+            }
+
+            List<List<String>> sentenceTags = tagger.tag(model, sentences).get();
+            if (json) {
+                respond(exchange, 200, "application/json", toJson(sentenceTags));
+            } else {
+                respond(exchange, 200, "text/tab-separated-values", toPos(sentences, sentenceTags));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 503, "text/plain", "Interrupted\n");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                respond(exchange, 503, "text/plain", e.getCause().getMessage() + "\n");
+                return;
+            }
+            respond(exchange, 500, "text/plain", e.getCause() + "\n");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleReload(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                respond(exchange, 405, "text/plain", "Use POST\n");
+                return;
+            }
+
+            String model = getQueryParameter(exchange, "model", DEFAULT_MODEL);
+            if (!registry.contains(model)) {
+                respond(exchange, 404, "text/plain", "Unknown model " + model + "\n");
+                return;
+            }
+
+            try {
+                Integer version = registry.reload(model);
+                respond(exchange, 200, "text/plain", "Reloaded " + model + " as version " + version + "\n");
+            } catch (IOException | RuntimeException e) {
+                respond(exchange, 500, "text/plain", e + "\n");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Boolean hasModel(String model) {
+        return registry == null ? model.equals(DEFAULT_MODEL) : registry.contains(model);
+    }
+
+    private static String getQueryParameter(HttpExchange exchange, String name, String defaultValue) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith(name + "=")) {
+                    return URLDecoder.decode(parameter.substring(name.length() + 1), StandardCharsets.UTF_8);
+                }
+            }
+        }
+
+        return defaultValue;
+    }
+
+    private static void respond(HttpExchange exchange, Integer status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private static List<List<String>> parseWords(byte[] body) throws IOException {
+        List<List<String>> sentences = new ArrayList<>();
+        CorpusReader reader = new CorpusReader(new ByteArrayInputStream(body));
+        List<String> sentence;
+        while ((sentence = reader.nextSentence()) != null) {
+            if (sentence.contains("")) {
+                throw new IllegalArgumentException("Empty word in the sentence ending on line " + reader.getLineNumber());
+            }
+            if (!sentence.isEmpty()) {
+                sentences.add(sentence);
+            }
+        }
+
+        return sentences;
+    }
+
+    private static String toPos(List<List<String>> sentences, List<List<String>> sentenceTags) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < sentences.size(); i++) {
+            for (int j = 0; j < sentences.get(i).size(); j++) {
+                out.append(sentences.get(i).get(j)).append('\t').append(sentenceTags.get(i).get(j)).append('\n');
+            }
+            out.append('\n');
+        }
+
+        return out.toString();
+    }
+
+    // Accepts {"sentences": [[word, ...], ...]} or a bare [[word, ...], ...]. Only the
+    // subset of JSON needed for this shape is understood.
+    static List<List<String>> parseJson(String body) {
+        JsonParser parser = new JsonParser(body);
+        parser.skipWhitespace();
+        List<List<String>> sentences;
+        if (parser.peek() == '{') {
+            parser.expect('{');
+            String key = parser.readString();
+            if (!key.equals("sentences")) {
+                throw new IllegalArgumentException("Expected a \"sentences\" field, got \"" + key + "\"");
+            }
+            parser.expect(':');
+            sentences = parser.readSentences();
+            parser.expect('}');
+        } else {
+            sentences = parser.readSentences();
+        }
+        parser.skipWhitespace();
+        if (parser.position < body.length()) {
+            throw new IllegalArgumentException("Unexpected content at offset " + parser.position);
+        }
+
+        return sentences;
+    }
+
+    static String toJson(List<List<String>> sentenceTags) {
+        StringBuilder out = new StringBuilder("{\"tags\":[");
+        for (int i = 0; i < sentenceTags.size(); i++) {
+            out.append(i > 0 ? ",[" : "[");
+            List<String> tags = sentenceTags.get(i);
+            for (int j = 0; j < tags.size(); j++) {
+                if (j > 0) {
+                    out.append(',');
+                }
+                appendJsonString(out, tags.get(j));
+            }
+            out.append(']');
+        }
+
+        return out.append("]}\n").toString();
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+
+    private static class JsonParser {
+
+        String text;
+        int position;
+
+        JsonParser(String text) {
+            this.text = text;
+        }
+
+        List<List<String>> readSentences() {
+            List<List<String>> sentences = new ArrayList<>();
+            expect('[');
+            if (!tryConsume(']')) {
+                do {
+                    sentences.add(readWords());
+                } while (tryConsume(','));
+                expect(']');
+            }
+
+            return sentences;
+        }
+
+        List<String> readWords() {
+            List<String> words = new ArrayList<>();
+            expect('[');
+            if (!tryConsume(']')) {
+                do {
+                    skipWhitespace();
+                    int offset = position;
+                    String word = readString();
+                    if (word.isEmpty()) {
+                        throw new IllegalArgumentException("Empty word at offset " + offset);
+                    }
+                    words.add(word);
+                } while (tryConsume(','));
+                expect(']');
+            }
+
+            return words;
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("Truncated \\u escape at offset " + position);
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("Invalid \\u escape at offset " + position);
+                        }
+                        position += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+
+            throw new IllegalArgumentException("Unterminated string");
+        }
+
+        char peek() {
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("Unexpected end of JSON");
+            }
+
+            return text.charAt(position);
+        }
+
+        void expect(char c) {
+            skipWhitespace();
+            if (peek() != c) {
+                throw new IllegalArgumentException("Expected '" + c + "' at offset " + position + ", got '" + peek() + "'");
+            }
+            position++;
+        }
+
+        boolean tryConsume(char c) {
+            skipWhitespace();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+
+            return false;
+        }
+
+        void skipWhitespace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+    }
+
+}
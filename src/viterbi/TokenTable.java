@@ -0,0 +1,89 @@
+package viterbi;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Interns UTF-8 byte ranges into canonical Strings without allocating for tokens
+// that have been seen before. Only the first MAX_SIZE distinct tokens are kept, which
+// covers the frequent words of any corpus; later new tokens are decoded on their own, so
+// a reader over unbounded input uses bounded memory. A table belongs to one reader and
+// is not thread-safe.
+class TokenTable {
+
+    private static final int INITIAL_CAPACITY = 1 << 12;
+    private static final int MAX_SIZE = 1 << 16;
+
+    private int size;
+    private int[] hashes;
+    private byte[][] keys;
+    private String[] tokens;
+
+    TokenTable() {
+        hashes = new int[INITIAL_CAPACITY];
+        keys = new byte[INITIAL_CAPACITY][];
+        tokens = new String[INITIAL_CAPACITY];
+    }
+
+    String intern(byte[] buffer, int from, int to) {
+        int hash = hash(buffer, from, to);
+        int mask = tokens.length - 1;
+        int slot = hash & mask;
+        while (tokens[slot] != null) {
+            if (hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, buffer, from, to)) {
+                return tokens[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == MAX_SIZE) {
+            return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+        }
+
+        byte[] key = Arrays.copyOfRange(buffer, from, to);
+        String token = new String(key, StandardCharsets.UTF_8);
+        hashes[slot] = hash;
+        keys[slot] = key;
+        tokens[slot] = token;
+        if (++size * 2 > tokens.length && size < MAX_SIZE) {
+            resize();
+        }
+
+        return token;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void resize() {
+        int[] oldHashes = hashes;
+        byte[][] oldKeys = keys;
+        String[] oldTokens = tokens;
+        hashes = new int[2 * oldTokens.length];
+        keys = new byte[2 * oldTokens.length][];
+        tokens = new String[2 * oldTokens.length];
+
+        int mask = tokens.length - 1;
+        for (int i = 0; i < oldTokens.length; i++) {
+            if (oldTokens[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (tokens[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                hashes[slot] = oldHashes[i];
+                keys[slot] = oldKeys[i];
+                tokens[slot] = oldTokens[i];
+            }
+        }
+    }
+
+    private static int hash(byte[] buffer, int from, int to) {
+        int hash = 0x811c9dc5; // FNV-1a
+        for (int i = from; i < to; i++) {
+            hash = (hash ^ buffer[i]) * 0x01000193;
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+}
@@ -0,0 +1,45 @@
+package viterbi;
+
+class Trellis {
+
+    double[] previous; // columns may be longer than numTags, VECTOR reads whole vectors
+    double[] current;
+    double[] emission;
+    int[] backpointer; // indexed by timeStep * numTags + state
+    int[] path;
+    int[] activePrevious; // BEAM: states that survived pruning, best first
+    int[] activeCurrent;
+    int numActivePrevious;
+    int numActiveCurrent;
+
+    Trellis(int columnLength) {
+        previous = new double[columnLength];
+        current = new double[columnLength];
+        emission = new double[columnLength];
+        activePrevious = new int[columnLength];
+        activeCurrent = new int[columnLength];
+        backpointer = new int[0];
+        path = new int[0];
+    }
+
+    void ensureCapacity(int numTags, int sentenceLength) {
+        if (path.length < sentenceLength) {
+            int capacity = Math.max(sentenceLength, 2 * path.length);
+            backpointer = new int[numTags * capacity];
+            path = new int[capacity];
+        }
+    }
+
+    void swap() {
+        double[] column = previous;
+        previous = current;
+        current = column;
+
+        int[] active = activePrevious;
+        activePrevious = activeCurrent;
+        activeCurrent = active;
+        numActivePrevious = numActiveCurrent;
+        numActiveCurrent = 0;
+    }
+
+}
@@ -0,0 +1,300 @@
+package viterbi;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Second-order tag transitions P(t3 | t1, t2), smoothed by TnT's deleted interpolation
+// (Brants 2000) of trigram, bigram and unigram estimates. Every sentence is padded with
+// a boundary tag, two at the start and one at the end, whose id is getNumTags().
+//
+// Trigrams are collected as packed ints while training and stored after freeze() in CSR
+// form: the trigrams with context (t1, t2) are in [offset[t1 * B + t2], offset[t1 * B + t2 + 1])
+// sorted by t3, where B = getNumTags() + 1.
+public class TrigramModel {
+
+    private List<String> tags;
+    private Map<String, Integer> tagIds;
+    private int numTags;
+    private int boundary;
+    private int numStates; // tags plus the boundary tag
+    private boolean frozen;
+
+    private int[] trigramKeys; // (t1 * B + t2) * B + t3 for every trigram seen, until freeze()
+    private int numTrigramKeys;
+
+    private long totalCount;
+    private int[] unigramCount;
+    private int[] bigramCount; // indexed by t2 * B + t3
+    private int[] contextCount; // number of bigrams starting with t2
+    private int[] pairCount; // number of trigrams starting with (t1, t2)
+    private int[] trigramOffset;
+    private int[] trigramTag;
+    private int[] trigramCount;
+
+    private double[] lambda;
+    private double[] logBackoffProbability; // log(lambda1 P(t3) + lambda2 P(t3 | t2)), indexed by t2 * B + t3
+    private double[] logTrigramProbability; // interpolated log probability of every stored trigram
+
+    public TrigramModel(List<String> tags) {
+        this.tags = List.copyOf(tags);
+        numTags = tags.size();
+        boundary = numTags;
+        numStates = numTags + 1;
+        if ((long) numStates * numStates * numStates > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many tags to pack trigrams into ints: " + numTags);
+        }
+
+        tagIds = new HashMap<>();
+        for (int tag = 0; tag < numTags; tag++) {
+            tagIds.put(tags.get(tag), tag);
+        }
+        trigramKeys = new int[1 << 16];
+    }
+
+    public void train(File file) {
+        if (frozen) {
+            throw new IllegalStateException("Cannot train a frozen trigram model");
+        }
+
+        try {
+            CorpusReader reader = new CorpusReader(file);
+            int t1 = boundary;
+            int t2 = boundary;
+            boolean inSentence = false;
+
+            while (reader.nextLine()) {
+                if (reader.isBlankLine()) {
+                    if (inSentence) {
+                        addTrigram(t1, t2, boundary);
+                    }
+                    t1 = boundary;
+                    t2 = boundary;
+                    inSentence = false;
+                    continue;
+                }
+
+                String tag = reader.getTag();
+                if (tag == null) {
+                    throw new IOException(file + ":" + reader.getLineNumber() + ": expected a word and a tag separated by a tab");
+                }
+                Integer t3 = tagIds.get(tag);
+                if (t3 == null) {
+                    throw new IOException(file + ":" + reader.getLineNumber() + ": unknown tag " + tag);
+                }
+
+                addTrigram(t1, t2, t3);
+                t1 = t2;
+                t2 = t3;
+                inSentence = true;
+            }
+            if (inSentence) {
+                addTrigram(t1, t2, boundary);
+            }
+
+            reader.close();
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+    }
+
+    public void train(List<File> files) {
+        for (File file : files) {
+            train(file);
+        }
+    }
+
+    private void addTrigram(int t1, int t2, int t3) {
+        if (numTrigramKeys == trigramKeys.length) {
+            trigramKeys = Arrays.copyOf(trigramKeys, 2 * trigramKeys.length);
+        }
+        trigramKeys[numTrigramKeys++] = (t1 * numStates + t2) * numStates + t3;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    // Turns the collected trigrams into counts and interpolated probabilities. The
+    // model can be used for decoding, but not trained further, afterwards.
+    public void freeze() {
+        if (frozen) {
+            return;
+        }
+
+        int[] keys = Arrays.copyOf(trigramKeys, numTrigramKeys);
+        trigramKeys = null;
+        Arrays.sort(keys);
+
+        int numDistinct = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                numDistinct++;
+            }
+        }
+
+        totalCount = keys.length;
+        unigramCount = new int[numStates];
+        bigramCount = new int[numStates * numStates];
+        contextCount = new int[numStates];
+        pairCount = new int[numStates * numStates];
+        trigramOffset = new int[numStates * numStates + 1];
+        trigramTag = new int[numDistinct];
+        trigramCount = new int[numDistinct];
+
+        int index = -1;
+        for (int i = 0; i < keys.length; i++) {
+            int pair = keys[i] / numStates;
+            int t2 = pair % numStates;
+            int t3 = keys[i] % numStates;
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                index++;
+                trigramTag[index] = t3;
+                trigramOffset[pair + 1] = index + 1;
+            }
+            trigramCount[index]++;
+            unigramCount[t3]++;
+            bigramCount[t2 * numStates + t3]++;
+            contextCount[t2]++;
+            pairCount[pair]++;
+        }
+        for (int pair = 1; pair <= numStates * numStates; pair++) {
+            trigramOffset[pair] = Math.max(trigramOffset[pair], trigramOffset[pair - 1]);
+        }
+
+        lambda = calculateLambdas();
+        computeProbabilities();
+        frozen = true;
+    }
+
+    // Deleted interpolation: each trigram votes, with its count, for the estimate that
+    // predicts it best once that trigram is removed from the counts.
+    private double[] calculateLambdas() {
+        double[] weights = new double[3];
+        for (int pair = 0; pair < numStates * numStates; pair++) {
+            int t2 = pair % numStates;
+            for (int i = trigramOffset[pair]; i < trigramOffset[pair + 1]; i++) {
+                int t3 = trigramTag[i];
+                double unigram = ratio(unigramCount[t3] - 1, totalCount - 1);
+                double bigram = ratio(bigramCount[t2 * numStates + t3] - 1, contextCount[t2] - 1);
+                double trigram = ratio(trigramCount[i] - 1, pairCount[pair] - 1);
+
+                if (trigram >= bigram && trigram >= unigram) {
+                    weights[2] += trigramCount[i];
+                } else if (bigram >= unigram) {
+                    weights[1] += trigramCount[i];
+                } else {
+                    weights[0] += trigramCount[i];
+                }
+            }
+        }
+
+        double total = weights[0] + weights[1] + weights[2];
+        for (int i = 0; i < 3; i++) {
+            weights[i] = total == 0 ? 1.0 / 3 : weights[i] / total;
+        }
+
+        return weights;
+    }
+
+    private static double ratio(long numerator, long denominator) {
+        return denominator <= 0 ? 0.0 : numerator / (double) denominator;
+    }
+
+    private void computeProbabilities() {
+        double[] backoff = new double[numStates * numStates];
+        logBackoffProbability = new double[numStates * numStates];
+        for (int t2 = 0; t2 < numStates; t2++) {
+            for (int t3 = 0; t3 < numStates; t3++) {
+                int index = t2 * numStates + t3;
+                backoff[index] = lambda[0] * ratio(unigramCount[t3], totalCount)
+                        + lambda[1] * ratio(bigramCount[index], contextCount[t2]);
+                logBackoffProbability[index] = Math.log(backoff[index]);
+            }
+        }
+
+        logTrigramProbability = new double[trigramTag.length];
+        for (int pair = 0; pair < numStates * numStates; pair++) {
+            int t2 = pair % numStates;
+            for (int i = trigramOffset[pair]; i < trigramOffset[pair + 1]; i++) {
+                double trigram = ratio(trigramCount[i], pairCount[pair]);
+                logTrigramProbability[i] = Math.log(backoff[t2 * numStates + trigramTag[i]] + lambda[2] * trigram);
+            }
+        }
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public Integer getNumTags() {
+        return numTags;
+    }
+
+    // Id of the sentence boundary tag, one past the last real tag.
+    public int getBoundary() {
+        return boundary;
+    }
+
+    // Unigram, bigram and trigram weights, in that order.
+    public double[] getLambdas() {
+        return lambda.clone();
+    }
+
+    public Integer getNumTrigrams() {
+        return trigramTag.length;
+    }
+
+    public Long getTrigramCount() {
+        return totalCount;
+    }
+
+    public double getTransitionProbability(String t1, String t2, String t3) {
+        return Math.exp(getLogTransitionProbability(getStateId(t1), getStateId(t2), getStateId(t3)));
+    }
+
+    // The boundary tag is written as null.
+    private int getStateId(String tag) {
+        return tag == null ? boundary : tagIds.get(tag);
+    }
+
+    public double getLogTransitionProbability(int t1, int t2, int t3) {
+        if (!frozen) {
+            throw new IllegalStateException("Trigram model must be frozen before computing probabilities");
+        }
+
+        int pair = t1 * numStates + t2;
+        int index = Arrays.binarySearch(trigramTag, trigramOffset[pair], trigramOffset[pair + 1], t3);
+
+        return index >= 0 ? logTrigramProbability[index] : logBackoffProbability[t2 * numStates + t3];
+    }
+
+    int[] getTrigramOffsets() {
+        return trigramOffset;
+    }
+
+    int[] getTrigramTags() {
+        return trigramTag;
+    }
+
+    double[] getLogTrigramProbabilities() {
+        return logTrigramProbability;
+    }
+
+    double[] getLogBackoffProbabilities() {
+        return logBackoffProbability;
+    }
+
+    public long getSizeInBytes() {
+        long size = (unigramCount.length + bigramCount.length + contextCount.length + pairCount.length) * 4L;
+        size += (trigramOffset.length + trigramTag.length + trigramCount.length) * 4L;
+        size += (logBackoffProbability.length + logTrigramProbability.length) * 8L;
+
+        return size;
+    }
+
+}
@@ -0,0 +1,250 @@
+package viterbi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Second-order Viterbi over states (t_{i-1}, t_i). Exact decoding would extend all
+// B^2 pair states by all B tags at every word; instead known words only take the tags
+// they were seen with, and each column keeps only the pair states within beamThreshold
+// of the best one, at most beamWidth of them. Emission probabilities, the tag dictionary
+// and unknown-word handling come from a bigram Viterbi over the same tags.
+public class TrigramViterbi {
+
+    private static final Integer DEFAULT_BEAM_WIDTH = 16;
+    private static final Double DEFAULT_BEAM_THRESHOLD = Math.log(1000);
+
+    private Viterbi viterbi;
+    private TrigramModel trigramModel;
+    private int numStates;
+    private int boundary;
+    private Integer beamWidth;
+    private Double beamThreshold;
+    private ThreadLocal<Lattice> lattices;
+
+    public TrigramViterbi(Viterbi viterbi, TrigramModel trigramModel) {
+        if (!viterbi.tags.equals(trigramModel.getTags())) {
+            throw new IllegalArgumentException("Trigram model must use the tag order of the compiled model");
+        }
+        trigramModel.freeze();
+
+        this.viterbi = viterbi;
+        this.trigramModel = trigramModel;
+        numStates = trigramModel.getNumTags() + 1;
+        boundary = trigramModel.getBoundary();
+        beamWidth = DEFAULT_BEAM_WIDTH;
+        beamThreshold = DEFAULT_BEAM_THRESHOLD;
+        lattices = ThreadLocal.withInitial(() -> new Lattice(numStates));
+    }
+
+    public TrigramModel getTrigramModel() {
+        return trigramModel;
+    }
+
+    public Integer getBeamWidth() {
+        return beamWidth;
+    }
+
+    public void setBeamWidth(Integer beamWidth) {
+        if (beamWidth < 1) {
+            throw new IllegalArgumentException("Beam width must be at least 1, got " + beamWidth);
+        }
+        this.beamWidth = beamWidth;
+    }
+
+    public Double getBeamThreshold() {
+        return beamThreshold;
+    }
+
+    public void setBeamThreshold(Double beamThreshold) {
+        if (!(beamThreshold >= 0)) {
+            throw new IllegalArgumentException("Beam threshold must not be negative, got " + beamThreshold);
+        }
+        this.beamThreshold = beamThreshold;
+    }
+
+    public List<String> run(List<String> sentence) {
+        int sentenceLength = sentence.size();
+        if (sentenceLength == 0) {
+            return new ArrayList<>();
+        }
+
+        Lattice lattice = lattices.get();
+        Trellis trellis = viterbi.trellises.get();
+        lattice.clear();
+        lattice.add(boundary, boundary, 0.0, -1);
+        lattice.endColumn();
+
+        for (int timeStep = 0; timeStep < sentenceLength; timeStep++) {
+            String word = sentence.get(timeStep);
+            extend(lattice, viterbi.getCandidateStates(word), viterbi.getLogEmissionProbabilities(word, trellis));
+            lattice.endColumn();
+        }
+
+        return getWordTags(lattice, sentenceLength);
+    }
+
+    // Extends every pair state (t1, t2) of the last column by every candidate t3, keeping
+    // the best predecessor of each new pair state (t2, t3), then prunes the new column.
+    private void extend(Lattice lattice, int[] candidates, double[] emissionProbs) {
+        int[] trigramOffsets = trigramModel.getTrigramOffsets();
+        int[] trigramTags = trigramModel.getTrigramTags();
+        double[] trigramProbs = trigramModel.getLogTrigramProbabilities();
+        double[] backoffProbs = trigramModel.getLogBackoffProbabilities();
+        double[] bestProbs = lattice.bestProb;
+        int[] bestEntries = lattice.bestEntry;
+        int numTouched = 0;
+
+        for (int entry = lattice.columnStart; entry < lattice.size; entry++) {
+            int t1 = lattice.previousTag[entry];
+            int t2 = lattice.tag[entry];
+            double prevProb = lattice.prob[entry];
+            int pair = t1 * numStates + t2;
+
+            // candidates and the stored trigrams of (t1, t2) are both sorted by tag, so
+            // they are merged instead of looking up each trigram
+            int index = trigramOffsets[pair];
+            int end = trigramOffsets[pair + 1];
+            for (int t3 : candidates) {
+                while (index < end && trigramTags[index] < t3) {
+                    index++;
+                }
+                double transitionProb = index < end && trigramTags[index] == t3 ? trigramProbs[index] : backoffProbs[t2 * numStates + t3];
+                double prob = prevProb + transitionProb + emissionProbs[t3];
+
+                int state = t2 * numStates + t3;
+                if (bestEntries[state] < 0) {
+                    lattice.touched[numTouched++] = state;
+                    bestProbs[state] = prob;
+                    bestEntries[state] = entry;
+                } else if (prob > bestProbs[state]) {
+                    bestProbs[state] = prob;
+                    bestEntries[state] = entry;
+                }
+            }
+        }
+
+        prune(lattice, numTouched);
+    }
+
+    private void prune(Lattice lattice, int numTouched) {
+        double[] bestProbs = lattice.bestProb;
+        int[] bestEntries = lattice.bestEntry;
+        int[] touched = lattice.touched;
+        int[] active = lattice.active;
+
+        double maxProb = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numTouched; i++) {
+            maxProb = Math.max(maxProb, bestProbs[touched[i]]);
+        }
+        double threshold = maxProb - beamThreshold;
+
+        int numActive = 0;
+        for (int i = 0; i < numTouched; i++) {
+            int state = touched[i];
+            double prob = bestProbs[state];
+            if (prob < threshold || (numActive == beamWidth && prob <= bestProbs[active[numActive - 1]])) {
+                continue;
+            }
+
+            int position = Math.min(numActive, beamWidth - 1);
+            while (position > 0 && bestProbs[active[position - 1]] < prob) {
+                active[position] = active[position - 1];
+                position--;
+            }
+            active[position] = state;
+            numActive = Math.min(numActive + 1, beamWidth);
+        }
+
+        for (int i = 0; i < numActive; i++) {
+            int state = active[i];
+            lattice.add(state / numStates, state % numStates, bestProbs[state], bestEntries[state]);
+        }
+        for (int i = 0; i < numTouched; i++) {
+            bestEntries[touched[i]] = -1;
+        }
+    }
+
+    // Closes the sentence with the transition into the boundary tag and follows the
+    // back pointers of the best final pair state.
+    private List<String> getWordTags(Lattice lattice, int sentenceLength) {
+        int bestEntry = lattice.columnStart;
+        double bestProb = Double.NEGATIVE_INFINITY;
+        for (int entry = lattice.columnStart; entry < lattice.size; entry++) {
+            double prob = lattice.prob[entry] + trigramModel.getLogTransitionProbability(lattice.previousTag[entry], lattice.tag[entry], boundary);
+            if (prob > bestProb) {
+                bestProb = prob;
+                bestEntry = entry;
+            }
+        }
+
+        String[] wordTags = new String[sentenceLength];
+        int entry = bestEntry;
+        for (int timeStep = sentenceLength - 1; timeStep >= 0; timeStep--) {
+            wordTags[timeStep] = viterbi.tags.get(lattice.tag[entry]);
+            entry = lattice.backpointer[entry];
+        }
+
+        return new ArrayList<>(Arrays.asList(wordTags));
+    }
+
+    // The pruned columns of one sentence, stored back to back, and scratch space for
+    // building the next column. Reused by each thread across sentences.
+    private static class Lattice {
+
+        int size;
+        int columnStart;
+        int nextColumnStart;
+        int[] previousTag;
+        int[] tag;
+        double[] prob;
+        int[] backpointer;
+
+        double[] bestProb; // indexed by pair state t2 * B + t3
+        int[] bestEntry;
+        int[] touched;
+        int[] active;
+
+        Lattice(int numStates) {
+            previousTag = new int[256];
+            tag = new int[256];
+            prob = new double[256];
+            backpointer = new int[256];
+
+            bestProb = new double[numStates * numStates];
+            bestEntry = new int[numStates * numStates];
+            Arrays.fill(bestEntry, -1);
+            touched = new int[numStates * numStates];
+            active = new int[numStates * numStates];
+        }
+
+        void clear() {
+            size = 0;
+            columnStart = 0;
+            nextColumnStart = 0;
+        }
+
+        // Entries added since the last call become the column that is extended next.
+        void endColumn() {
+            columnStart = nextColumnStart;
+            nextColumnStart = size;
+        }
+
+        void add(int previous, int current, double probability, int back) {
+            if (size == tag.length) {
+                previousTag = Arrays.copyOf(previousTag, 2 * size);
+                tag = Arrays.copyOf(tag, 2 * size);
+                prob = Arrays.copyOf(prob, 2 * size);
+                backpointer = Arrays.copyOf(backpointer, 2 * size);
+            }
+
+            previousTag[size] = previous;
+            tag[size] = current;
+            prob[size] = probability;
+            backpointer[size] = back;
+            size++;
+        }
+
+    }
+
+}
@@ -1,86 +1,625 @@
 package viterbi;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 public class Viterbi {
 
+    private static final Integer EMISSION_CACHE_CAPACITY = 10000;
+    private static final Integer SENTENCES_PER_TASK = 64;
+    private static final Integer SENTENCES_PER_BATCH = 32;
+    private static final Integer DEFAULT_BEAM_WIDTH = 4;
+    private static final Double DEFAULT_BEAM_THRESHOLD = Double.POSITIVE_INFINITY;
+    private static final String VECTOR_COLUMN_KERNEL = "viterbi.vector.VectorColumnKernel";
+    private static final ColumnKernel COLUMN_KERNEL = loadColumnKernel();
+
     Integer MAX_SUFFIX_LENGTH;
 
-    BigramModel model;
+    CompiledModel model;
     SuffixTree upperCaseTree;
     SuffixTree lowerCaseTree;
     List<String> tags;
     Integer numTags;
+    DecodeMode mode;
+    ThreadLocal<Trellis> trellises;
+    EmissionCache emissionCache;
+    EmissionTable emissionTable;
+    TaggerMetrics metrics;
+    ThreadLocal<BatchTrellis> batchTrellises;
+    int[] allStates;
+    Integer beamWidth;
+    Double beamThreshold;
 
     public Viterbi(BigramModel bigramModel, SuffixTree upperCaseSuffixTree, SuffixTree lowerCaseSuffixTree, Integer maxSuffixLength) {
-        model = bigramModel;
+        this(bigramModel.compile(), upperCaseSuffixTree, lowerCaseSuffixTree, maxSuffixLength);
+    }
+
+    public Viterbi(CompiledModel compiledModel, SuffixTree upperCaseSuffixTree, SuffixTree lowerCaseSuffixTree, Integer maxSuffixLength) {
+        model = compiledModel;
         upperCaseTree = upperCaseSuffixTree;
         lowerCaseTree = lowerCaseSuffixTree;
         MAX_SUFFIX_LENGTH = maxSuffixLength;
 
         tags = model.getTags();
         numTags = tags.size();
+        if (!tags.equals(upperCaseTree.getTags()) || !tags.equals(lowerCaseTree.getTags())) {
+            throw new IllegalArgumentException("Suffix trees must use the tag order of the compiled model");
+        }
+        mode = DecodeMode.LOG;
+        trellises = ThreadLocal.withInitial(() -> new Trellis(model.getPaddedNumTags()));
+        batchTrellises = ThreadLocal.withInitial(() -> new BatchTrellis(SENTENCES_PER_BATCH, numTags));
+        emissionCache = new EmissionCache(EMISSION_CACHE_CAPACITY);
+
+        allStates = new int[numTags];
+        for (int state = 0; state < numTags; state++) {
+            allStates[state] = state;
+        }
+        beamWidth = DEFAULT_BEAM_WIDTH;
+        beamThreshold = DEFAULT_BEAM_THRESHOLD;
+    }
+
+    // The vector kernel is only present when compiled with --add-modules jdk.incubator.vector,
+    // and only loads when run with the same flag.
+    private static ColumnKernel loadColumnKernel() {
+        try {
+            return (ColumnKernel) Class.forName(VECTOR_COLUMN_KERNEL).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new ScalarColumnKernel();
+        }
+    }
+
+    public static String getColumnKernelName() {
+        return COLUMN_KERNEL.getClass().getSimpleName();
+    }
+
+    public DecodeMode getDecodeMode() {
+        return mode;
+    }
+
+    public void setDecodeMode(DecodeMode mode) {
+        this.mode = mode;
+    }
+
+    public EmissionCache getEmissionCache() {
+        return emissionCache;
+    }
+
+    public void setEmissionCache(EmissionCache emissionCache) {
+        this.emissionCache = emissionCache;
+    }
+
+    public EmissionTable getEmissionTable() {
+        return emissionTable;
+    }
+
+    // Decodes unknown words through emissionTable, or through the emission cache when null.
+    public void setEmissionTable(EmissionTable emissionTable) {
+        this.emissionTable = emissionTable;
+    }
+
+    // Computes the emissions of every unknown word up front, so that decoding no longer
+    // goes through the emission cache or takes logarithms per token. Known words already
+    // have precomputed rows in the compiled model.
+    public EmissionTable precomputeEmissions() {
+        EmissionTable table = new EmissionTable(upperCaseTree, lowerCaseTree, MAX_SUFFIX_LENGTH);
+        emissionTable = table;
+        return table;
+    }
+
+    public Integer getBeamWidth() {
+        return beamWidth;
+    }
+
+    // BEAM keeps at most beamWidth states per column.
+    public void setBeamWidth(Integer beamWidth) {
+        if (beamWidth < 1) {
+            throw new IllegalArgumentException("Beam width must be at least 1, got " + beamWidth);
+        }
+        this.beamWidth = beamWidth;
+    }
+
+    public Double getBeamThreshold() {
+        return beamThreshold;
+    }
+
+    // BEAM drops states whose log probability is more than beamThreshold below the best
+    // state of their column, i.e. states less than exp(-beamThreshold) times as likely.
+    public void setBeamThreshold(Double beamThreshold) {
+        if (!(beamThreshold >= 0)) {
+            throw new IllegalArgumentException("Beam threshold must not be negative, got " + beamThreshold);
+        }
+        this.beamThreshold = beamThreshold;
+    }
+
+    public TaggerMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Starts recording decode statistics into metrics, or stops when metrics is null.
+    public void setMetrics(TaggerMetrics metrics) {
+        this.metrics = metrics;
     }
 
     public List<String> run(List<String> sentence) {
-        Integer sentenceLength = sentence.size();
-        Matrix<Double> ppMatrix = new Matrix<Double>(numTags, sentenceLength);
-        Matrix<Integer> backpointer = new Matrix<Integer>(numTags, sentenceLength);
+        int sentenceLength = sentence.size();
+        if (sentenceLength == 0) {
+            return new ArrayList<>();
+        }
+
+        TaggerMetrics sentenceMetrics = metrics;
+        long start = sentenceMetrics == null ? 0 : System.nanoTime();
+
+        Trellis trellis = trellises.get();
+        trellis.ensureCapacity(numTags, sentenceLength);
+        DecodeMode decodeMode = mode;
+        if (decodeMode == DecodeMode.PROBABILITY) {
+            runProbability(sentence, trellis);
+        } else if (decodeMode == DecodeMode.SPARSE) {
+            runSparse(sentence, trellis);
+        } else if (decodeMode == DecodeMode.VECTOR) {
+            runVector(sentence, trellis);
+        } else if (decodeMode == DecodeMode.BEAM) {
+            runBeam(sentence, trellis);
+        } else {
+            runLog(sentence, trellis);
+        }
+        // only the active states of a BEAM column have back pointers for this sentence
+        int bestPathPointer = decodeMode == DecodeMode.BEAM ? trellis.activeCurrent[0] : getBestState(trellis.current);
+        List<String> wordTags = getWordTags(trellis, sentenceLength, bestPathPointer);
+
+        if (sentenceMetrics != null) {
+            sentenceMetrics.recordSentence(sentenceLength, getNumUnknownWords(sentence), System.nanoTime() - start);
+        }
+
+        return wordTags;
+    }
+
+    // Tags every sentence on numThreads threads and returns the tags in sentence order.
+    public List<List<String>> runAll(List<List<String>> sentences, Integer numThreads) throws InterruptedException, ExecutionException {
+        List<List<String>> sentenceTags = new ArrayList<>(Collections.nCopies(sentences.size(), null));
+        if (numThreads <= 1) {
+            for (int i = 0; i < sentences.size(); i++) {
+                sentenceTags.set(i, run(sentences.get(i)));
+            }
+
+            return sentenceTags;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int start = 0; start < sentences.size(); start += SENTENCES_PER_TASK) {
+            final int from = start;
+            final int to = Math.min(start + SENTENCES_PER_TASK, sentences.size());
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    sentenceTags.set(i, run(sentences.get(i)));
+                }
+                return null;
+            });
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            for (Future<Void> task : pool.invokeAll(tasks)) {
+                task.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        return sentenceTags;
+    }
+
+    // Tags many sentences at once and returns the tags in sentence order. Sentences are
+    // grouped by length and each group is decoded in lock-step: every transition is read
+    // once per time step for the whole group, transitions with zero probability are
+    // skipped, and the group's running maxima are independent of each other instead of
+    // forming one long dependency chain. The exact log-space modes give the same tags as
+    // run(); PROBABILITY and BEAM decode one sentence at a time.
+    public List<List<String>> runBatch(List<List<String>> sentences) {
+        List<List<String>> sentenceTags = new ArrayList<>(Collections.nCopies(sentences.size(), null));
+        if (mode == DecodeMode.PROBABILITY || mode == DecodeMode.BEAM) {
+            for (int i = 0; i < sentences.size(); i++) {
+                sentenceTags.set(i, run(sentences.get(i)));
+            }
+
+            return sentenceTags;
+        }
+
+        Integer[] order = new Integer[sentences.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(sentences.get(b).size(), sentences.get(a).size()));
+
+        BatchTrellis trellis = batchTrellises.get();
+        int[] batch = new int[SENTENCES_PER_BATCH];
+        int start = 0;
+        while (start < order.length) {
+            int batchSize = 0;
+            while (batchSize < SENTENCES_PER_BATCH && start + batchSize < order.length) {
+                batch[batchSize] = order[start + batchSize];
+                batchSize++;
+            }
+            start += batchSize;
+
+            TaggerMetrics batchMetrics = metrics;
+            long startTime = batchMetrics == null ? 0 : System.nanoTime();
+            runBatch(sentences, batch, batchSize, trellis, sentenceTags);
+            if (batchMetrics != null) {
+                long nanos = (System.nanoTime() - startTime) / batchSize;
+                for (int b = 0; b < batchSize; b++) {
+                    List<String> sentence = sentences.get(batch[b]);
+                    if (!sentence.isEmpty()) {
+                        batchMetrics.recordSentence(sentence.size(), getNumUnknownWords(sentence), nanos);
+                    }
+                }
+            }
+        }
+
+        return sentenceTags;
+    }
+
+    // batch holds sentence indices in order of decreasing length, so the sentences still
+    // being decoded at any time step are a prefix of the batch.
+    private void runBatch(List<List<String>> sentences, int[] batch, int batchSize, BatchTrellis trellis, List<List<String>> sentenceTags) {
+        double[] startProbs = model.getLogStartProbabilities();
+        double[] transitionProbs = model.getTransposedLogTransitionProbabilities();
+        int stride = model.getPaddedNumTags();
+        int numTags = this.numTags;
+        int width = trellis.batchSize;
+
+        int numActive = batchSize;
+        while (numActive > 0 && sentences.get(batch[numActive - 1]).isEmpty()) {
+            sentenceTags.set(batch[numActive - 1], new ArrayList<>());
+            numActive--;
+        }
+        if (numActive == 0) {
+            return;
+        }
+
+        trellis.ensureCapacity(numTags, sentences.get(batch[0]).size());
+        int[] backpointer = trellis.backpointer;
+        double[] maxProbs = trellis.maxProb;
+        int[] maxPrevStates = trellis.maxPrevState;
+
+        setBatchEmissions(sentences, batch, numActive, 0, trellis);
+        for (int state = 0; state < numTags; state++) {
+            for (int b = 0; b < numActive; b++) {
+                trellis.current[state * width + b] = startProbs[state] + trellis.emission[b][state];
+                backpointer[b * numTags + state] = -1;
+            }
+        }
+        numActive = finishBatch(sentences, batch, numActive, 0, trellis, sentenceTags);
+
+        for (int timeStep = 1; numActive > 0; timeStep++) {
+            trellis.swap();
+            double[] prevProbs = trellis.previous;
+            double[] probs = trellis.current;
+            setBatchEmissions(sentences, batch, numActive, timeStep, trellis);
+            int offset = timeStep * width * numTags;
+
+            for (int state = 0; state < numTags; state++) {
+                int row = state * stride;
+                for (int b = 0; b < numActive; b++) {
+                    maxProbs[b] = Double.NEGATIVE_INFINITY;
+                    maxPrevStates[b] = 0;
+                }
+
+                for (int prevState = 0; prevState < numTags; prevState++) {
+                    double transitionProb = transitionProbs[row + prevState];
+                    if (transitionProb == Double.NEGATIVE_INFINITY) {
+                        continue; // cannot beat the initial maximum, so the result is unchanged
+                    }
+
+                    int column = prevState * width;
+                    for (int b = 0; b < numActive; b++) {
+                        double prob = transitionProb + prevProbs[column + b];
+                        if (maxProbs[b] < prob) {
+                            maxProbs[b] = prob;
+                            maxPrevStates[b] = prevState;
+                        }
+                    }
+                }
+
+                for (int b = 0; b < numActive; b++) {
+                    probs[state * width + b] = maxProbs[b] + trellis.emission[b][state];
+                    backpointer[offset + b * numTags + state] = maxPrevStates[b];
+                }
+            }
+            numActive = finishBatch(sentences, batch, numActive, timeStep, trellis, sentenceTags);
+        }
+    }
+
+    private void setBatchEmissions(List<List<String>> sentences, int[] batch, int numActive, int timeStep, BatchTrellis trellis) {
+        for (int b = 0; b < numActive; b++) {
+            String word = sentences.get(batch[b]).get(timeStep);
+            int wordId = model.getWordId(word);
+            if (wordId >= 0) {
+                trellis.emission[b] = model.getLogEmissionProbabilities(wordId);
+                continue;
+            }
+
+            EmissionTable table = emissionTable;
+            if (table != null) {
+                recordTableLookup();
+                trellis.emission[b] = table.getLogEmissionProbabilities(word);
+                continue;
+            }
+
+            double[] stateProbs = getSuffixStats(word);
+            double[] emissionProbs = trellis.unknownEmission[b];
+            for (int state = 0; state < numTags; state++) {
+                emissionProbs[state] = Math.log(stateProbs[state]);
+            }
+            trellis.emission[b] = emissionProbs;
+        }
+    }
+
+    // Backtracks the sentences whose last word was at timeStep and returns how many remain.
+    private int finishBatch(List<List<String>> sentences, int[] batch, int numActive, int timeStep, BatchTrellis trellis, List<List<String>> sentenceTags) {
+        while (numActive > 0 && sentences.get(batch[numActive - 1]).size() == timeStep + 1) {
+            int b = numActive - 1;
+            int width = trellis.batchSize;
+            int bestPathPointer = 0;
+            for (int state = 1; state < numTags; state++) {
+                if (trellis.current[state * width + b] > trellis.current[bestPathPointer * width + b]) {
+                    bestPathPointer = state;
+                }
+            }
+
+            int[] bestPath = trellis.path;
+            bestPath[timeStep] = bestPathPointer;
+            for (int step = timeStep - 1; step >= 0; step--) {
+                bestPath[step] = trellis.backpointer[((step + 1) * trellis.batchSize + b) * numTags + bestPath[step + 1]];
+            }
+
+            List<String> wordTags = new ArrayList<>(timeStep + 1);
+            for (int step = 0; step <= timeStep; step++) {
+                wordTags.add(tags.get(bestPath[step]));
+            }
+            sentenceTags.set(batch[b], wordTags);
+            numActive--;
+        }
+
+        return numActive;
+    }
+
+    private void runProbability(List<String> sentence, Trellis trellis) {
+        double[] startProbs = model.getStartProbabilities();
+        double[] transitionProbs = model.getTransitionProbabilities();
+        int[] backpointer = trellis.backpointer;
+        int numTags = this.numTags;
 
+        double[] emissionProbs = getEmissionProbabilities(sentence.get(0));
         for (int state = 0; state < numTags; state++) {
-            Integer timeStep = 0;
-            Double prob = model.getStartProbability(tags.get(state));
-            String word = sentence.get(timeStep);
-            Double emissionProb = getEmissionProbability(state, word);
-            ppMatrix.set(state, timeStep, prob * emissionProb);
-            backpointer.set(state, timeStep, -1);
+            trellis.current[state] = startProbs[state] * emissionProbs[state];
+            backpointer[state] = -1;
         }
 
-        for (int timeStep = 1; timeStep < sentenceLength; timeStep++) {
-            String word = sentence.get(timeStep);
+        for (int timeStep = 1; timeStep < sentence.size(); timeStep++) {
+            trellis.swap();
+            double[] prevProbs = trellis.previous;
+            double[] probs = trellis.current;
+            emissionProbs = getEmissionProbabilities(sentence.get(timeStep));
+            int offset = timeStep * numTags;
+
             for (int state = 0; state < numTags; state++) {
-                Double maxProb = 0.0;
-                Integer maxPrevState = 0;
+                double maxProb = 0.0;
+                int maxPrevState = 0;
                 for (int prevState = 0; prevState < numTags; prevState++) {
-                    if (model.getTagTransitionCount(tags.get(prevState), tags.get(state)) > 0) {
-                        Double transitionProb = model.getTransitionProbability(tags.get(prevState), tags.get(state));
-                        Double prevProb = ppMatrix.get(prevState, timeStep - 1);
-                        if (maxProb < transitionProb * prevProb) {
-                            maxProb = transitionProb * prevProb;
+                    double transitionProb = transitionProbs[prevState * numTags + state];
+                    if (transitionProb > 0) {
+                        double prob = transitionProb * prevProbs[prevState];
+                        if (maxProb < prob) {
+                            maxProb = prob;
                             maxPrevState = prevState;
                         }
                     }
                 }
 
-                Double emissionProb = getEmissionProbability(state, word);
-                ppMatrix.set(state, timeStep, maxProb * emissionProb);
-                backpointer.set(state, timeStep, maxPrevState);
+                probs[state] = maxProb * emissionProbs[state];
+                backpointer[offset + state] = maxPrevState;
+            }
+        }
+    }
+
+    private void runLog(List<String> sentence, Trellis trellis) {
+        double[] transitionProbs = model.getLogTransitionProbabilities();
+        int[] backpointer = trellis.backpointer;
+        int numTags = this.numTags;
+
+        startLog(sentence, trellis);
+        for (int timeStep = 1; timeStep < sentence.size(); timeStep++) {
+            trellis.swap();
+            double[] prevProbs = trellis.previous;
+            double[] probs = trellis.current;
+            double[] emissionProbs = getLogEmissionProbabilities(sentence.get(timeStep), trellis);
+            int offset = timeStep * numTags;
+
+            for (int state = 0; state < numTags; state++) {
+                double maxProb = Double.NEGATIVE_INFINITY;
+                int maxPrevState = 0;
+                for (int prevState = 0; prevState < numTags; prevState++) {
+                    double prob = transitionProbs[prevState * numTags + state] + prevProbs[prevState];
+                    if (maxProb < prob) {
+                        maxProb = prob;
+                        maxPrevState = prevState;
+                    }
+                }
+
+                probs[state] = maxProb + emissionProbs[state];
+                backpointer[offset + state] = maxPrevState;
             }
         }
+    }
+
+    private void runSparse(List<String> sentence, Trellis trellis) {
+        int[] predecessorOffsets = model.getPredecessorOffsets();
+        int[] predecessors = model.getPredecessors();
+        double[] transitionProbs = model.getPredecessorLogProbabilities();
+        int[] backpointer = trellis.backpointer;
+        int numTags = this.numTags;
+
+        startLog(sentence, trellis);
+        for (int timeStep = 1; timeStep < sentence.size(); timeStep++) {
+            trellis.swap();
+            double[] prevProbs = trellis.previous;
+            double[] probs = trellis.current;
+            double[] emissionProbs = getLogEmissionProbabilities(sentence.get(timeStep), trellis);
+            int offset = timeStep * numTags;
+
+            for (int state = 0; state < numTags; state++) {
+                double maxProb = Double.NEGATIVE_INFINITY;
+                int maxPrevState = 0;
+                for (int i = predecessorOffsets[state]; i < predecessorOffsets[state + 1]; i++) {
+                    double prob = transitionProbs[i] + prevProbs[predecessors[i]];
+                    if (maxProb < prob) {
+                        maxProb = prob;
+                        maxPrevState = predecessors[i];
+                    }
+                }
 
-        return getWordTags(ppMatrix, backpointer, sentenceLength);
+                probs[state] = maxProb + emissionProbs[state];
+                backpointer[offset + state] = maxPrevState;
+            }
+        }
     }
 
-    private List<String> getWordTags(Matrix<Double> ppMatrix, Matrix<Integer> backpointer, Integer sentenceLength) {
-        Integer bestPathPointer = 0;
+    private void runVector(List<String> sentence, Trellis trellis) {
+        double[] transitionProbs = model.getTransposedLogTransitionProbabilities();
+        int stride = model.getPaddedNumTags();
+
+        startLog(sentence, trellis);
+        for (int timeStep = 1; timeStep < sentence.size(); timeStep++) {
+            trellis.swap();
+            double[] emissionProbs = getLogEmissionProbabilities(sentence.get(timeStep), trellis);
+            COLUMN_KERNEL.computeColumn(transitionProbs, stride, trellis.previous, emissionProbs, numTags,
+                    trellis.current, trellis.backpointer, timeStep * numTags);
+        }
+    }
+
+    // Only active states of the previous column are extended. When no tag sequence has a
+    // non-zero probability the exact modes fall back to tag 0, while BEAM keeps following
+    // the first surviving state, so such sentences can be tagged differently.
+    private void runBeam(List<String> sentence, Trellis trellis) {
+        double[] startProbs = model.getLogStartProbabilities();
+        double[] transitionProbs = model.getLogTransitionProbabilities();
+        int[] backpointer = trellis.backpointer;
+        int numTags = this.numTags;
+
+        String word = sentence.get(0);
+        double[] emissionProbs = getLogEmissionProbabilities(word, trellis);
+        int[] candidates = getCandidateStates(word);
+        Arrays.fill(trellis.current, Double.NEGATIVE_INFINITY);
+        for (int state : candidates) {
+            trellis.current[state] = startProbs[state] + emissionProbs[state];
+            backpointer[state] = -1;
+        }
+        prune(trellis, candidates);
+
+        for (int timeStep = 1; timeStep < sentence.size(); timeStep++) {
+            trellis.swap();
+            double[] prevProbs = trellis.previous;
+            double[] probs = trellis.current;
+            int[] prevStates = trellis.activePrevious;
+            int numPrevStates = trellis.numActivePrevious;
+            word = sentence.get(timeStep);
+            emissionProbs = getLogEmissionProbabilities(word, trellis);
+            candidates = getCandidateStates(word);
+            int offset = timeStep * numTags;
+
+            Arrays.fill(probs, Double.NEGATIVE_INFINITY);
+            for (int state : candidates) {
+                double maxProb = Double.NEGATIVE_INFINITY;
+                int maxPrevState = prevStates[0];
+                for (int i = 0; i < numPrevStates; i++) {
+                    int prevState = prevStates[i];
+                    double prob = transitionProbs[prevState * numTags + state] + prevProbs[prevState];
+                    if (maxProb < prob) {
+                        maxProb = prob;
+                        maxPrevState = prevState;
+                    }
+                }
+
+                probs[state] = maxProb + emissionProbs[state];
+                backpointer[offset + state] = maxPrevState;
+            }
+            prune(trellis, candidates);
+        }
+    }
+
+    // Known words can only take the tags they were seen with; any tag may emit an unknown word.
+    int[] getCandidateStates(String word) {
+        int wordId = model.getWordId(word);
+        return wordId >= 0 ? model.getPossibleTags(wordId) : allStates;
+    }
+
+    // Fills the active states of the current column with the best beamWidth candidates
+    // within beamThreshold of the best one, best first. Pruned states keep their scores,
+    // which are never read again, since only active states are extended.
+    private void prune(Trellis trellis, int[] candidates) {
+        double[] probs = trellis.current;
+        int[] active = trellis.activeCurrent;
+
+        double bestProb = Double.NEGATIVE_INFINITY;
+        for (int state : candidates) {
+            bestProb = Math.max(bestProb, probs[state]);
+        }
+        double threshold = bestProb - beamThreshold;
+
+        int numActive = 0;
+        for (int state : candidates) {
+            double prob = probs[state];
+            if (prob < threshold || (numActive == beamWidth && prob <= probs[active[numActive - 1]])) {
+                continue;
+            }
+
+            int position = Math.min(numActive, beamWidth - 1);
+            while (position > 0 && probs[active[position - 1]] < prob) {
+                active[position] = active[position - 1];
+                position--;
+            }
+            active[position] = state;
+            numActive = Math.min(numActive + 1, beamWidth);
+        }
+        trellis.numActiveCurrent = numActive;
+    }
+
+    private void startLog(List<String> sentence, Trellis trellis) {
+        double[] startProbs = model.getLogStartProbabilities();
+        double[] emissionProbs = getLogEmissionProbabilities(sentence.get(0), trellis);
+        for (int state = 0; state < numTags; state++) {
+            trellis.current[state] = startProbs[state] + emissionProbs[state];
+            trellis.backpointer[state] = -1;
+        }
+    }
+
+    private int getBestState(double[] probs) {
+        int bestState = 0;
         for (int state = 1; state < numTags; state++) {
-            Integer timeStep = sentenceLength - 1;
-            if (ppMatrix.get(state, timeStep) > ppMatrix.get(bestPathPointer, timeStep)) {
-                bestPathPointer = state;
+            if (probs[state] > probs[bestState]) {
+                bestState = state;
             }
         }
 
-        int[] bestPath = new int[sentenceLength];
+        return bestState;
+    }
+
+    private List<String> getWordTags(Trellis trellis, int sentenceLength, int bestPathPointer) {
+        int[] bestPath = trellis.path;
         bestPath[sentenceLength - 1] = bestPathPointer;
         for (int timeStep = sentenceLength - 2; timeStep >= 0; timeStep--) {
-            Integer nextTimeStep = timeStep + 1;
-            bestPath[timeStep] = backpointer.get(bestPath[nextTimeStep], nextTimeStep);
+            int nextTimeStep = timeStep + 1;
+            bestPath[timeStep] = trellis.backpointer[nextTimeStep * numTags + bestPath[nextTimeStep]];
         }
 
-        List<String> wordTags = new ArrayList<>();
+        List<String> wordTags = new ArrayList<>(sentenceLength);
         for (int timeStep = 0; timeStep < sentenceLength; timeStep++) {
             wordTags.add(tags.get(bestPath[timeStep]));
         }
@@ -88,47 +627,82 @@ public class Viterbi {
         return wordTags;
     }
 
-    private Double getEmissionProbability(Integer state, String word) {
-        if (model.getWordCount(word) > 0) {
-            return model.getEmissionProbability(tags.get(state), word);
+    private Integer getNumUnknownWords(List<String> sentence) {
+        Integer numUnknownWords = 0;
+        for (String word : sentence) {
+            if (model.getWordId(word) < 0) {
+                numUnknownWords++;
+            }
         }
 
-        Map<Integer, Double> stateProbs = getSuffixStats(word);
-        return stateProbs.get(state);
+        return numUnknownWords;
     }
 
-    private Map<Integer, Double> getSuffixStats(String word) {
-        Integer numTags = tags.size();
+    private double[] getEmissionProbabilities(String word) {
+        int wordId = model.getWordId(word);
+        if (wordId >= 0) {
+            return model.getEmissionProbabilities(wordId);
+        }
+
+        return getSuffixStats(word);
+    }
 
-        Map<Integer, Double> stateProbs = new HashMap<>();
+    double[] getLogEmissionProbabilities(String word, Trellis trellis) {
+        int wordId = model.getWordId(word);
+        if (wordId >= 0) {
+            return model.getLogEmissionProbabilities(wordId);
+        }
+
+        EmissionTable table = emissionTable;
+        if (table != null) {
+            recordTableLookup();
+            return table.getLogEmissionProbabilities(word);
+        }
+
+        double[] stateProbs = getSuffixStats(word);
         for (int state = 0; state < numTags; state++) {
-            String tag = tags.get(state);
-            Integer suffixLength = Math.min(MAX_SUFFIX_LENGTH, word.length());
-            String suffix = word.substring(word.length() - suffixLength);
+            trellis.emission[state] = Math.log(stateProbs[state]);
+        }
 
-            SuffixStats stats;
-            if (Character.isUpperCase(word.charAt(0))) {
-                stats = new SuffixStats(upperCaseTree, suffix, tag);
-            } else {
-                stats = new SuffixStats(lowerCaseTree, suffix, tag);
-            }
+        return trellis.emission;
+    }
 
-            Double probWordIsTag = 0.0; // handles case when tag never occurs in the suffix tree
-            if (stats.tagProb > 0.0) {
-                probWordIsTag = stats.tagSuffixProb * stats.suffixProb / stats.tagProb;
-            }
+    // Precomputed emissions are counted apart from emission cache hits and suffix lookups.
+    private void recordTableLookup() {
+        TaggerMetrics lookupMetrics = metrics;
+        if (lookupMetrics != null) {
+            lookupMetrics.recordTableLookup();
+        }
+    }
 
-            stateProbs.put(state, probWordIsTag);
+    private double[] getSuffixStats(String word) {
+        EmissionTable table = emissionTable;
+        if (table != null) {
+            recordTableLookup();
+            return table.getEmissionProbabilities(word);
         }
 
-        Map.Entry<Integer, Double> maxEntry = null;
+        Integer suffixLength = Math.min(MAX_SUFFIX_LENGTH, word.length());
+        String suffix = word.substring(word.length() - suffixLength);
+        boolean upperCase = Character.isUpperCase(word.charAt(0));
 
-        for (Map.Entry<Integer, Double> entry : stateProbs.entrySet()) {
-            if (maxEntry == null || entry.getValue().compareTo(maxEntry.getValue()) > 0) {
-                maxEntry = entry;
+        TaggerMetrics lookupMetrics = metrics;
+        double[] stateProbs = emissionCache.get(upperCase, suffix);
+        if (stateProbs != null) {
+            if (lookupMetrics != null) {
+                lookupMetrics.recordCacheHit();
             }
+            return stateProbs;
+        }
+
+        stateProbs = new double[numTags];
+        SuffixTree tree = upperCase ? upperCaseTree : lowerCaseTree;
+        Integer depth = tree.getTagDistribution(suffix, stateProbs);
+        if (lookupMetrics != null) {
+            lookupMetrics.recordSuffixLookup(depth);
         }
 
+        emissionCache.put(upperCase, suffix, stateProbs);
         return stateProbs;
     }
 
@@ -1,50 +1,127 @@
 package viterbi;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
 import java.util.List;
 
 public class WSJPOSTagger {
 
     private static Integer MAX_SUFFIX_LENGTH;
     private static Integer MAX_WORD_FREQUENCY;
+    private static Integer NUM_THREADS;
+    private static final Integer MAX_SENTENCES_IN_FLIGHT = 1024;
+    private static final String STANDARD_STREAMS = "-";
 
-    public static void main(String[] args) throws IOException {
-        if (args.length != 4) {
-            String errMsg = "Expected [TRAINING_FILENAME] [TEST_WORDS_FILENAME] [MAX_SUFFIX_LENGTH] [MAX_WORD_FREQUENCY], got " + args.length + " args.";
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length != 4 && args.length != 5) {
+            String errMsg = "Expected [TRAINING_FILENAME] [TEST_WORDS_FILENAME] [MAX_SUFFIX_LENGTH] [MAX_WORD_FREQUENCY] [NUM_THREADS (optional)], got " + args.length + " args.";
             System.err.println(errMsg);
             System.exit(99);
         }
 
-        System.out.println("Training HMM model...");
+        // a test filename of "-" tags standard input and writes the tagged sentences to standard output
+        String testFilename = args[1];
+        Boolean useStandardStreams = testFilename.equals(STANDARD_STREAMS);
+        PrintStream log = useStandardStreams ? System.err : System.out;
+
         MAX_SUFFIX_LENGTH = Integer.parseInt(args[2]);
         MAX_WORD_FREQUENCY = Integer.parseInt(args[3]);
-        System.out.println("Using a maximum suffix length of " + MAX_SUFFIX_LENGTH);
-        System.out.println("Using words with a maximum frequency of " + MAX_WORD_FREQUENCY + " to create suffix tree");
+        NUM_THREADS = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        log.println("Using a maximum suffix length of " + MAX_SUFFIX_LENGTH);
+        log.println("Using words with a maximum frequency of " + MAX_WORD_FREQUENCY + " to create suffix tree");
 
-        String trainFilename = args[0];
-        File trainFile = new File(trainFilename);
-        BigramModel bigramModel = new BigramModel(MAX_SUFFIX_LENGTH);
-        bigramModel.train(trainFile);
+        TaggerMetrics metrics = TaggerMetrics.fromSystemProperties(log);
+        Viterbi viterbi;
+        try {
+            viterbi = loadViterbi(args[0], MAX_SUFFIX_LENGTH, MAX_WORD_FREQUENCY, NUM_THREADS, metrics, log);
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+            return;
+        }
+        log.println("Finished training.");
+        log.println("Evaluating on " + NUM_THREADS + " threads...");
 
-        SuffixTreeBuilder treeBuilder = new SuffixTreeBuilder(bigramModel, MAX_SUFFIX_LENGTH, MAX_WORD_FREQUENCY);
-        SuffixTree upperCaseTree = treeBuilder.buildUpperCaseTree();
-        SuffixTree lowerCaseTree = treeBuilder.buildLowerCaseTree();
+        StreamingTagger tagger = new StreamingTagger(viterbi, NUM_THREADS, MAX_SENTENCES_IN_FLIGHT);
+        tagger.setMetrics(metrics);
+        long start = System.nanoTime();
+        if (useStandardStreams) {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(System.out));
+            tagger.tag(System.in, writer);
+            writer.close();
+            reportMetrics(metrics, start, log);
+            return;
+        }
 
-        String testFilename = args[1];
-        File testFile = new File(testFilename);
         String[] filenameParts = testFilename.split("/");
         String[] filenameAndExt = filenameParts[filenameParts.length - 1].split("\\.");
         String filename = filenameAndExt[0];
         String outputFilename = filename + ".pos";
 
-        System.out.println("Finished training.");
-        System.out.println("Evaluating...");
+        InputStream input = new FileInputStream(testFilename);
+        Writer writer = new BufferedWriter(new FileWriter(outputFilename));
+        tagger.tag(input, writer);
+        input.close();
+        writer.close();
+        reportMetrics(metrics, start, log);
+        log.println("Check the base directory for the output file.");
+    }
+
+    // Loads a model snapshot, or trains on the comma-separated training files. When
+    // metrics is not null the load phases are timed and the model records into it. With
+    // -Dviterbi.precomputeEmissions=true all unknown-word emissions are computed up front.
+    public static Viterbi loadViterbi(String trainFilename, Integer maxSuffixLength, Integer maxWordFrequency, Integer numThreads, TaggerMetrics metrics, PrintStream log) throws IOException {
+        File trainFile = new File(trainFilename);
+        long start = System.nanoTime();
+        Viterbi viterbi;
+        if (ModelSnapshot.isSnapshot(trainFile)) {
+            ModelSnapshot snapshot = ModelSnapshot.load(trainFile);
+            log.println("Loaded model snapshot " + trainFilename + " with a maximum suffix length of " + snapshot.getMaxSuffixLength());
+            viterbi = snapshot.createViterbi();
+            recordPhase(metrics, "load", start);
+        } else {
+            log.println("Training HMM model...");
+            BigramModel bigramModel = new BigramModel(maxSuffixLength);
+            bigramModel.train(CorpusReader.getFiles(trainFilename), numThreads);
+            recordPhase(metrics, "train", start);
 
-        EvaluationResult result = bigramModel.evaluate(upperCaseTree, lowerCaseTree, testFile, outputFilename);
-        generateOutputFile(outputFilename, result);
-        System.out.println("Check the base directory for the output file.");
+            start = System.nanoTime();
+            SuffixTreeBuilder treeBuilder = new SuffixTreeBuilder(bigramModel, maxSuffixLength, maxWordFrequency);
+            SuffixTreeBuilder.Trees trees = treeBuilder.buildTrees();
+            log.println("Built suffix trees: " + trees);
+            viterbi = new Viterbi(bigramModel, trees.getUpperCaseTree(), trees.getLowerCaseTree(), maxSuffixLength);
+            recordPhase(metrics, "trees", start);
+        }
+
+        if (Boolean.getBoolean(EmissionTable.PROPERTY)) {
+            start = System.nanoTime();
+            EmissionTable table = viterbi.precomputeEmissions();
+            log.println("Precomputed " + table.getNumRows() + " unknown-word emission rows, " + table.getSizeInBytes() / 1024 + " KB");
+            recordPhase(metrics, "emissions", start);
+        }
+        viterbi.setMetrics(metrics);
+        return viterbi;
+    }
+
+    private static void recordPhase(TaggerMetrics metrics, String phase, long start) {
+        if (metrics != null) {
+            metrics.recordPhase(phase, System.nanoTime() - start);
+        }
+    }
+
+    private static void reportMetrics(TaggerMetrics metrics, long start, PrintStream log) {
+        if (metrics != null) {
+            recordPhase(metrics, "tag", start);
+            metrics.stopReporting();
+            log.println(metrics.getSnapshot());
+        }
     }
 
     public static void generateOutputFile(String filename, EvaluationResult result) throws IOException {
@@ -0,0 +1,44 @@
+package viterbi;
+
+// Word counts and word/tag counts of a BigramModel. Words get dense int ids in order of
+// first occurrence; tag ids are the model's, i.e. positions in BigramModel.getTags().
+// Each (word, tag) pair is stored once. Stores are written by one thread while training
+// and may be read by any number of threads afterwards.
+public interface WordTagCounts {
+
+    String PROPERTY = "viterbi.offHeapCounts";
+
+    // The store selected by -Dviterbi.offHeapCounts, on the heap by default.
+    static WordTagCounts create() {
+        return Boolean.getBoolean(PROPERTY) ? new OffHeapWordTagCounts() : new HeapWordTagCounts();
+    }
+
+    // A new, empty store of the same kind.
+    WordTagCounts createEmpty();
+
+    // -1 when word has never been counted.
+    int getWordId(String word);
+
+    // The id of word, which is added with no counts if it is new.
+    int addWord(String word);
+
+    String getWord(int wordId);
+
+    int getNumWords();
+
+    int getWordCount(int wordId);
+
+    void addWordCount(int wordId, int count);
+
+    int getWordTagCount(int wordId, int tagId);
+
+    void addWordTagCount(int wordId, int tagId, int count);
+
+    // Fills tagIds and counts with every tag word was counted with, in no particular order,
+    // and returns how many there are. Both arrays must have room for every tag.
+    int getTagCounts(int wordId, int[] tagIds, int[] counts);
+
+    // Memory held by the store, on or off the heap.
+    long getSizeInBytes();
+
+}
@@ -0,0 +1,51 @@
+package viterbi.vector;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import viterbi.ColumnKernel;
+
+// SIMD version of the column update. Each lane keeps the best score and the first
+// predecessor reaching it for the predecessors congruent to that lane, and the lanes
+// are combined at the end by taking the smallest predecessor among the lanes holding
+// the best score, so ties resolve to the same predecessor as the scalar kernel.
+//
+// Only compiled and loaded with --add-modules jdk.incubator.vector.
+public class VectorColumnKernel implements ColumnKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED.length() <= 8
+            ? DoubleVector.SPECIES_PREFERRED : DoubleVector.SPECIES_512;
+    private static final VectorSpecies<Long> INDEX_SPECIES = VectorSpecies.of(long.class, SPECIES.vectorShape());
+
+    @Override
+    public void computeColumn(double[] transitions, int stride, double[] prevProbs, double[] emissionProbs, int numTags,
+                              double[] probs, int[] backpointer, int offset) {
+        int lanes = SPECIES.length();
+        LongVector laneIndex = LongVector.zero(INDEX_SPECIES).addIndex(1);
+        DoubleVector negativeInfinity = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+
+        for (int state = 0; state < numTags; state++) {
+            int row = state * stride;
+            DoubleVector maxProbs = negativeInfinity;
+            LongVector maxPrevStates = LongVector.zero(INDEX_SPECIES);
+
+            for (int prevState = 0; prevState < stride; prevState += lanes) {
+                DoubleVector prob = DoubleVector.fromArray(SPECIES, transitions, row + prevState)
+                        .add(DoubleVector.fromArray(SPECIES, prevProbs, prevState));
+                VectorMask<Double> better = prob.compare(VectorOperators.GT, maxProbs);
+                maxProbs = maxProbs.blend(prob, better);
+                maxPrevStates = maxPrevStates.blend(laneIndex.add(prevState), better.cast(INDEX_SPECIES));
+            }
+
+            double maxProb = maxProbs.reduceLanes(VectorOperators.MAX);
+            VectorMask<Long> atMax = maxProbs.compare(VectorOperators.EQ, maxProb).cast(INDEX_SPECIES);
+            long maxPrevState = maxPrevStates.reduceLanes(VectorOperators.MIN, atMax);
+
+            probs[state] = maxProb + emissionProbs[state];
+            backpointer[offset + state] = (int) maxPrevState;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+package viterbi;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+// Starts the server on a loopback port and tags over HTTP with a model trained on WSJ_24.
+class TaggerServerTest {
+
+    private static Viterbi viterbi;
+
+    private HttpClient client = HttpClient.newHttpClient();
+    private TaggerServer server;
+
+    @BeforeAll
+    static void train() throws IOException {
+        BigramModel bigramModel = new BigramModel(5);
+        bigramModel.train(new File("WSJ_POS_CORPUS_FOR_STUDENTS/WSJ_24.pos"));
+        SuffixTreeBuilder.Trees trees = new SuffixTreeBuilder(bigramModel, 5, 10).buildTrees();
+        viterbi = new Viterbi(bigramModel, trees.getUpperCaseTree(), trees.getLowerCaseTree(), 5);
+    }
+
+    @AfterEach
+    void stop() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    void tagsJson() throws Exception {
+        start(new BatchingTagger(() -> viterbi, 2, 256, 2L, 1024));
+
+        HttpResponse<String> response = post("/tag", "application/json", "{\"sentences\": [[\"The\", \"dog\", \"barked\", \".\"], [\"a\", \"dog\"]]}");
+
+        assertEquals(200, response.statusCode());
+        assertEquals("{\"tags\":[[\"DT\",\"NN\",\"VBD\",\".\"],[\"DT\",\"NN\"]]}\n", response.body());
+    }
+
+    @Test
+    void tagsWords() throws Exception {
+        start(new BatchingTagger(() -> viterbi, 2, 256, 2L, 1024));
+
+        HttpResponse<String> response = post("/tag", "text/plain", "The\ndog\nbarked\n.\n\na\ndog\n");
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/tab-separated-values"));
+        assertEquals("The\tDT\ndog\tNN\nbarked\tVBD\n.\t.\n\na\tDT\ndog\tNN\n\n", response.body());
+    }
+
+    @Test
+    void rejectsInvalidRequests() throws Exception {
+        start(new BatchingTagger(() -> viterbi, 2, 256, 2L, 1024));
+
+        assertEquals(400, post("/tag", "application/json", "{\"sentences\": [[\"a\", \"\"]]}").statusCode());
+        assertEquals(400, post("/tag", "application/json", "[[\"a\"").statusCode());
+        assertEquals(400, post("/tag", "text/plain", "The\n\tNN\n").statusCode());
+        assertEquals(404, post("/tag?model=other", "application/json", "[[\"a\"]]").statusCode());
+        assertEquals(405, client.send(HttpRequest.newBuilder(uri("/tag")).GET().build(), HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    @Test
+    void rejectsLargeBodies() throws Exception {
+        start(new BatchingTagger(() -> viterbi, 2, 256, 2L, 1024));
+
+        char[] words = new char[TaggerServer.MAX_REQUEST_BYTES + 1024];
+        for (int i = 0; i < words.length; i += 2) {
+            words[i] = 'a';
+            words[i + 1] = '\n';
+        }
+
+        assertEquals(413, post("/tag", "text/plain", new String(words)).statusCode());
+    }
+
+    @Test
+    void rejectsRequestsWhenTheQueueIsFull() throws Exception {
+        // one worker, blocked until release, and room for one more request in the queue
+        CountDownLatch decoding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        start(new BatchingTagger(() -> {
+            decoding.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return viterbi;
+        }, 1, 1, 0L, 1));
+
+        CompletableFuture<HttpResponse<String>> first = postAsync("[[\"a\", \"dog\"]]");
+        decoding.await();
+
+        // the dispatcher holds at most one of these while it waits for the worker and the
+        // queue holds one more, so at least two are turned away at once
+        List<CompletableFuture<HttpResponse<String>>> others = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            others.add(postAsync("[[\"a\", \"dog\"]]"));
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (countRejected(others) < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        int rejected = countRejected(others);
+        release.countDown();
+
+        assertEquals(200, first.get().statusCode());
+        assertTrue(rejected >= 2, rejected + " requests rejected");
+        for (CompletableFuture<HttpResponse<String>> other : others) {
+            assertTrue(Arrays.asList(200, 503).contains(other.get().statusCode()));
+        }
+    }
+
+    private static int countRejected(List<CompletableFuture<HttpResponse<String>>> responses) {
+        int rejected = 0;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            if (response.isDone() && response.join().statusCode() == 503) {
+                rejected++;
+            }
+        }
+
+        return rejected;
+    }
+
+    private void start(BatchingTagger tagger) throws IOException {
+        server = new TaggerServer(tagger, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort() + path);
+    }
+
+    private HttpResponse<String> post(String path, String contentType, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri(path)).header("Content-Type", contentType)
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private CompletableFuture<HttpResponse<String>> postAsync(String json) {
+        HttpRequest request = HttpRequest.newBuilder(uri("/tag")).header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json)).build();
+
+        return client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+}